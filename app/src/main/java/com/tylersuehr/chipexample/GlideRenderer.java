@@ -24,9 +24,9 @@ class GlideRenderer implements ChipImageRenderer {
                     .load(chip.getAvatarUri())
                     .into(imageView);
         } else {
-            imageView.setImageBitmap(LetterTileProvider
+            imageView.setImageDrawable(LetterTileProvider
                     .getInstance(imageView.getContext())
-                    .getLetterTile(chip.getTitle()));
+                    .getLetterTileDrawable(chip.getTitle()));
         }
     }
 }
\ No newline at end of file
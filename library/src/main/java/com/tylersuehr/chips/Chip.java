@@ -5,6 +5,7 @@ import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.text.CollationKey;
 import java.text.Collator;
 import java.util.Comparator;
 import java.util.Locale;
@@ -26,6 +27,11 @@ public abstract class Chip {
     private Object mTag;
     /* Specifies if this Chip can be filtered or not */
     private boolean mFilterable;
+    /* Cached collation key of the title, used to sort chips */
+    private CollationKey mCollationKey;
+    /* Normalized title and subtitle used to match this Chip when filtering,
+       or null until built; read by the filter's background thread */
+    private volatile FilterKeys mFilterKeys;
 
 
     @Nullable
@@ -45,6 +51,11 @@ public abstract class Chip {
 
     /**
      * Lazy loads a comparator to compare chips to each other.
+     *
+     * Chips are compared using the cached collation keys of their titles, so
+     * the full collation algorithm only runs once per chip title instead of
+     * on every comparison.
+     *
      * @return {@link Comparator}
      */
     public static Comparator<Chip> getComparator() {
@@ -52,10 +63,7 @@ public abstract class Chip {
             sComparator = new Comparator<Chip>() {
                 @Override
                 public int compare(Chip c1, Chip c2) {
-                    if (sCollator == null) {
-                        sCollator = Collator.getInstance(Locale.getDefault());
-                    }
-                    return sCollator.compare(c1.getTitle(), c2.getTitle());
+                    return c1.getCollationKey().compareTo(c2.getCollationKey());
                 }
             };
         }
@@ -77,4 +85,103 @@ public abstract class Chip {
     public boolean isFilterable() {
         return mFilterable;
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the collation key of this chip's title, creating it if it doesn't
+     * exist yet or if the title has changed since it was created.
+     * @return {@link CollationKey}
+     */
+    CollationKey getCollationKey() {
+        final String title = getTitle();
+        if (mCollationKey == null || !mCollationKey.getSourceString().equals(title)) {
+            if (sCollator == null) {
+                sCollator = Collator.getInstance(Locale.getDefault());
+            }
+            mCollationKey = sCollator.getCollationKey(title);
+        }
+        return mCollationKey;
+    }
+
+    /**
+     * Builds the normalized title and subtitle used to match this chip against
+     * a filter pattern, so that filtering doesn't have to transform the title
+     * and subtitle of every chip on every keystroke.
+     *
+     * The title is lower-cased and the subtitle is lower-cased with all of its
+     * whitespace removed.
+     */
+    void buildFilterKeys() {
+        mFilterKeys = createFilterKeys();
+    }
+
+    /**
+     * Releases the normalized title and subtitle of this chip.
+     */
+    void clearFilterKeys() {
+        mFilterKeys = null;
+    }
+
+    /**
+     * Checks if the normalized title or subtitle of this chip contains the
+     * given filter pattern.
+     *
+     * @param pattern Lower-cased filter pattern
+     * @return True if this chip matches the pattern
+     */
+    boolean matchesFilter(String pattern) {
+        final FilterKeys keys = getFilterKeys();
+        return keys.title.contains(pattern)
+                || (keys.subtitle != null && keys.subtitle.contains(pattern));
+    }
+
+    /**
+     * Gets the normalized title of this chip, building it if needed.
+     * @return Lower-cased title
+     */
+    String getFilterTitle() {
+        return getFilterKeys().title;
+    }
+
+    /**
+     * Gets the normalized subtitle of this chip, building it if needed.
+     * @return Lower-cased subtitle without whitespace, or null
+     */
+    String getFilterSubtitle() {
+        return getFilterKeys().subtitle;
+    }
+
+    /**
+     * Gets the normalized title and subtitle of this chip, building them if
+     * needed. They're read once, since they may be cleared on another thread.
+     * @return {@link FilterKeys}
+     */
+    private FilterKeys getFilterKeys() {
+        FilterKeys keys = mFilterKeys;
+        if (keys == null) {
+            keys = createFilterKeys();
+            mFilterKeys = keys;
+        }
+        return keys;
+    }
+
+    private FilterKeys createFilterKeys() {
+        final String subtitle = getSubtitle();
+        return new FilterKeys(getTitle().toLowerCase(), (subtitle == null) ? null
+                : Utils.removeWhitespace(subtitle.toLowerCase()));
+    }
+
+
+    /**
+     * Immutable normalized title and subtitle of a chip, replaced as a whole so
+     * the filter's background thread never sees one without the other.
+     */
+    private static final class FilterKeys {
+        final String title;
+        final String subtitle;
+
+        FilterKeys(String title, String subtitle) {
+            this.title = title;
+            this.subtitle = subtitle;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.tylersuehr.chips;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Copyright © 2017 Tyler Suehr
+ *
+ * Describes what changed in a {@link ChipDataSource}, so that observers can update
+ * only what was affected instead of assuming everything changed.
+ *
+ * An event is made of changes, in the order they happened. Each change affects one
+ * of the lists of chips: inserting, removing, or changing a range of chips at a
+ * position, or resetting the whole list. A changed range has the same number of
+ * chips as before, like when a page of chips is loaded in place of its placeholders.
+ *
+ * The position of each change already accounts for the changes before it, so
+ * applying them in order to a copy of the list, as it was before the event, gives
+ * the list as it is now.
+ *
+ * @author Tyler Suehr
+ * @version 1.0
+ */
+public final class ChipChangeEvent {
+    /* Lists of chips in the data source */
+    public static final int SELECTED = 0;
+    public static final int FILTERED = 1;
+    public static final int ORIGINAL = 2;
+
+    private final List<Change> mChanges;
+
+
+    private ChipChangeEvent(List<Change> changes) {
+        mChanges = Collections.unmodifiableList(changes);
+    }
+
+    /**
+     * Creates an event for a data source that can't tell what changed, so
+     * every list of chips is reset.
+     *
+     * @return {@link ChipChangeEvent}
+     */
+    public static ChipChangeEvent everythingChanged() {
+        return new Builder().reset(SELECTED).reset(FILTERED).reset(ORIGINAL).build();
+    }
+
+    public List<Change> getChanges() {
+        return mChanges;
+    }
+
+    /**
+     * Checks if any of the changes affected the given list of chips.
+     *
+     * @param list {@link #SELECTED}, {@link #FILTERED}, or {@link #ORIGINAL}
+     * @return True if the list changed
+     */
+    public boolean hasChanges(int list) {
+        for (Change change : mChanges) {
+            if (change.mList == list) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if any of the changes inserted, removed, or reset chips in the
+     * given list of chips; changing chips in place doesn't count.
+     *
+     * @param list {@link #SELECTED}, {@link #FILTERED}, or {@link #ORIGINAL}
+     * @return True if the list changed its structure
+     */
+    public boolean hasStructuralChanges(int list) {
+        for (Change change : mChanges) {
+            if (change.mList == list && change.mType != Change.CHANGED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the given list of chips was reset, in which case only its
+     * current chips are known.
+     *
+     * @param list {@link #SELECTED}, {@link #FILTERED}, or {@link #ORIGINAL}
+     * @return True if the list was reset
+     */
+    public boolean isReset(int list) {
+        for (Change change : mChanges) {
+            if (change.mList == list && change.mType == Change.RESET) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "ChipChangeEvent" + mChanges;
+    }
+
+
+    /**
+     * Describes a single change to one list of chips.
+     */
+    public static final class Change {
+        /* Types of change */
+        public static final int INSERTED = 0;
+        public static final int REMOVED = 1;
+        public static final int RESET = 2;
+        public static final int CHANGED = 3;
+
+        private final int mList;
+        private final int mType;
+        private int mPosition;
+        private final List<Chip> mChips;
+
+
+        private Change(int list, int type, int position, List<Chip> chips) {
+            mList = list;
+            mType = type;
+            mPosition = position;
+            mChips = chips;
+        }
+
+        /**
+         * @return {@link #SELECTED}, {@link #FILTERED}, or {@link #ORIGINAL}
+         */
+        public int getList() {
+            return mList;
+        }
+
+        /**
+         * @return {@link #INSERTED}, {@link #REMOVED}, {@link #RESET}, or {@link #CHANGED}
+         */
+        public int getType() {
+            return mType;
+        }
+
+        /**
+         * Gets the position of the first chip inserted, removed, or changed,
+         * or zero if the list was reset.
+         */
+        public int getPosition() {
+            return mPosition;
+        }
+
+        /**
+         * Gets the number of chips inserted, removed, or changed, or zero if
+         * the list was reset.
+         */
+        public int getCount() {
+            return mChips.size();
+        }
+
+        /**
+         * Gets the chips inserted, removed, or changed, in list order, or an
+         * empty list if the list was reset.
+         */
+        public List<Chip> getChips() {
+            return Collections.unmodifiableList(mChips);
+        }
+
+        @Override
+        public String toString() {
+            final String type = (mType == INSERTED) ? "inserted"
+                    : (mType == REMOVED) ? "removed"
+                    : (mType == CHANGED) ? "changed" : "reset";
+            return "{list=" + mList + ", " + type + " " + getCount()
+                    + " at " + mPosition + "}";
+        }
+    }
+
+
+    /**
+     * Builds a {@link ChipChangeEvent} as changes happen, merging consecutive
+     * changes to the same range of a list into one change.
+     *
+     * Changes to different lists don't affect each other, so only the last
+     * change to the same list matters when merging.
+     */
+    public static final class Builder {
+        private final List<Change> mChanges = new ArrayList<>();
+        /* Index of the last change to each list, or -1 */
+        private final int[] mLast = { -1, -1, -1 };
+
+
+        public Builder inserted(int list, int position, Chip chip) {
+            final Change last = last(list, Change.INSERTED);
+            if (last != null && position >= last.mPosition
+                    && position <= last.mPosition + last.mChips.size()) {
+                last.mChips.add(position - last.mPosition, chip);
+            } else {
+                final List<Chip> chips = new ArrayList<>(1);
+                chips.add(chip);
+                add(new Change(list, Change.INSERTED, position, chips));
+            }
+            return this;
+        }
+
+        public Builder removed(int list, int position, Chip chip) {
+            final Change last = last(list, Change.REMOVED);
+            if (last != null && position == last.mPosition) {
+                last.mChips.add(chip);
+            } else if (last != null && position + 1 == last.mPosition) {
+                last.mChips.add(0, chip);
+                last.mPosition = position;
+            } else {
+                final List<Chip> chips = new ArrayList<>(1);
+                chips.add(chip);
+                add(new Change(list, Change.REMOVED, position, chips));
+            }
+            return this;
+        }
+
+        public Builder removed(int list, int position, List<Chip> chips) {
+            if (!chips.isEmpty()) {
+                add(new Change(list, Change.REMOVED, position, new ArrayList<>(chips)));
+            }
+            return this;
+        }
+
+        public Builder changed(int list, int position, List<Chip> chips) {
+            if (!chips.isEmpty()) {
+                add(new Change(list, Change.CHANGED, position, new ArrayList<>(chips)));
+            }
+            return this;
+        }
+
+        public Builder reset(int list) {
+            add(new Change(list, Change.RESET, 0, new ArrayList<Chip>(0)));
+            return this;
+        }
+
+        /**
+         * Adds all the changes of the given event after the changes so far,
+         * merging them like any other change.
+         */
+        public Builder append(ChipChangeEvent event) {
+            for (Change change : event.mChanges) {
+                if (change.mType == Change.INSERTED) {
+                    for (int i = 0; i < change.mChips.size(); i++) {
+                        inserted(change.mList, change.mPosition + i, change.mChips.get(i));
+                    }
+                } else if (change.mType == Change.REMOVED) {
+                    for (Chip chip : change.mChips) {
+                        removed(change.mList, change.mPosition, chip);
+                    }
+                } else if (change.mType == Change.CHANGED) {
+                    add(copy(change));
+                } else {
+                    reset(change.mList);
+                }
+            }
+            return this;
+        }
+
+        public boolean isEmpty() {
+            return mChanges.isEmpty();
+        }
+
+        public ChipChangeEvent build() {
+            // Copy the changes, since this may keep merging into them
+            final List<Change> changes = new ArrayList<>(mChanges.size());
+            for (Change change : mChanges) {
+                changes.add(copy(change));
+            }
+            return new ChipChangeEvent(changes);
+        }
+
+        private void add(Change change) {
+            if (change.mList < SELECTED || change.mList > ORIGINAL) {
+                throw new IllegalArgumentException("Unknown list of chips: " + change.mList);
+            }
+            mLast[change.mList] = mChanges.size();
+            mChanges.add(change);
+        }
+
+        /* Gets the last change to the given list if it's of the given type */
+        private Change last(int list, int type) {
+            if (list < SELECTED || list > ORIGINAL || mLast[list] < 0) {
+                return null;
+            }
+            final Change last = mChanges.get(mLast[list]);
+            return (last.mType == type) ? last : null;
+        }
+
+        private static Change copy(Change change) {
+            return new Change(change.mList, change.mType,
+                    change.mPosition, new ArrayList<>(change.mChips));
+        }
+    }
+}
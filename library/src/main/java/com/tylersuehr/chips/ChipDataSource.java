@@ -1,4 +1,5 @@
 package com.tylersuehr.chips;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -27,6 +28,9 @@ import java.util.List;
  *
  * Note: Selected chips will NEVER, or should never, appear in the other lists.
  *
+ * The lists returned by this should be treated as read-only; use the methods
+ * of this to change them so that implementations can keep track of their chips.
+ *
  * @author Tyler Suehr
  * @version 1.0
  */
@@ -35,11 +39,38 @@ public interface ChipDataSource {
     List<Chip> getFilteredChips();
     List<Chip> getOriginalChips();
 
+    /**
+     * Gets an immutable snapshot of all the lists of chips as they are now.
+     *
+     * Note: the version of the snapshot must change every time any of the lists
+     * changes, including {@link #setFilteredChips(List)}.
+     *
+     * @return {@link ChipSnapshot}
+     */
+    ChipSnapshot getSnapshot();
+
     Chip getFilteredChip(int position);
     Chip getSelectedChip(int position);
 
+    Chip getFilteredChipById(Object id);
+    Chip getSelectedChipById(Object id);
+
+    Chip getFilteredChipByTitle(String title);
+    Chip getSelectedChipByTitle(String title);
+
     void setFilterableChips(List<? extends Chip> chips);
 
+    /**
+     * Replaces the filtered chips with the given chips, which should be the
+     * original chips matching some filter, in the same order.
+     *
+     * Note: this doesn't notify any observers; it's up to the component doing
+     * the filtering to update its UI.
+     *
+     * @param chips List of {@link Chip}
+     */
+    void setFilteredChips(List<? extends Chip> chips);
+
     void takeChip(Chip chip);
     void takeChip(int position);
 
@@ -49,6 +80,46 @@ public interface ChipDataSource {
     void addFilteredChip(Chip chip);
     void addSelectedChip(Chip chip);
 
+    /**
+     * Appends all the given chips to the filterable chips at once, merging them
+     * into the sorted original chips and notifying observers only once. Chips
+     * already in this data source are ignored.
+     *
+     * This lets chips be loaded in batches, each one searchable as soon as it's
+     * appended, instead of waiting for all of them to be loaded. If the filtered
+     * chips are all the original chips, the appended chips are added to them too.
+     * Otherwise, the filtered chips are left as they are, since the appended chips
+     * may not match the current filter pattern; the chip filter applies it again.
+     *
+     * @param chips Collection of {@link Chip}
+     */
+    void appendFilterableChips(Collection<? extends Chip> chips);
+
+    /**
+     * Adds all the given chips to the selected chips at once, notifying observers
+     * only once. Any of the chips in the filtered chips are taken from them, and
+     * chips that are already selected are ignored.
+     *
+     * @param chips Collection of {@link Chip}
+     */
+    void addSelectedChips(Collection<? extends Chip> chips);
+
+    /**
+     * Takes all the given chips from the filtered chips at once, like
+     * {@link #takeChip(Chip)}, notifying observers only once.
+     *
+     * @param chips Collection of {@link Chip}
+     */
+    void takeChips(Collection<? extends Chip> chips);
+
+    /**
+     * Replaces all the given chips from the selected chips at once, like
+     * {@link #replaceChip(Chip)}, notifying observers only once.
+     *
+     * @param chips Collection of {@link Chip}
+     */
+    void replaceChips(Collection<? extends Chip> chips);
+
     void clearFilteredChips();
     void clearSelectedChips();
 
@@ -75,6 +146,17 @@ public interface ChipDataSource {
         void onChipDataSourceChanged();
     }
 
+    /**
+     * Defines an observer that wants to know exactly what changed in this
+     * data source, so that it can update only what was affected.
+     *
+     * Data sources subclassing {@link ObservableChipDataSource} call the
+     * event method instead of {@link #onChipDataSourceChanged()}.
+     */
+    interface ChangeEventObserver extends ChangeObserver {
+        void onChipDataSourceChanged(ChipChangeEvent event);
+    }
+
     /**
      * Defines an observer that wants to observe changes to individual
      * chip selection events.
@@ -86,4 +168,16 @@ public interface ChipDataSource {
         void onChipSelected(Chip addedChip);
         void onChipDeselected(Chip removedChip);
     }
+
+    /**
+     * Defines a selection observer that wants to be told about all the chips
+     * selected and unselected by a batch of changes at once.
+     *
+     * Data sources subclassing {@link ObservableChipDataSource} call the batch
+     * method, instead of the methods for individual chips, when a batch of
+     * changes is committed.
+     */
+    interface BatchSelectionObserver extends SelectionObserver {
+        void onChipsSelectionChanged(List<Chip> selectedChips, List<Chip> unselectedChips);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,48 @@
+package com.tylersuehr.chips;
+import android.support.v7.util.DiffUtil;
+
+import java.util.List;
+
+/**
+ * Copyright © 2017 Tyler Suehr
+ *
+ * Implementation of {@link DiffUtil.Callback} to find the chips inserted, removed,
+ * or moved between two lists of chips, so that adapters only have to update the
+ * views of those chips instead of rebinding every view.
+ *
+ * Chips are compared by identity, which is how the chip data source compares them.
+ * A chip showing in both lists is considered unchanged.
+ *
+ * @author Tyler Suehr
+ * @version 1.0
+ */
+final class ChipDiffCallback extends DiffUtil.Callback {
+    private final List<Chip> mOld;
+    private final List<Chip> mNew;
+
+
+    ChipDiffCallback(List<Chip> oldChips, List<Chip> newChips) {
+        mOld = oldChips;
+        mNew = newChips;
+    }
+
+    @Override
+    public int getOldListSize() {
+        return mOld.size();
+    }
+
+    @Override
+    public int getNewListSize() {
+        return mNew.size();
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+        return mOld.get(oldItemPosition) == mNew.get(newItemPosition);
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+        return true;
+    }
+}
@@ -0,0 +1,79 @@
+package com.tylersuehr.chips;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copyright © 2017 Tyler Suehr
+ *
+ * Maps keys, like chip IDs or titles, to the chips having them using a {@link HashMap},
+ * so that chips can be looked up without scanning a list of chips.
+ *
+ * Several chips are allowed to have the same key. Most keys only map to one chip, so
+ * that chip is stored by itself and a list is only created when a key is shared.
+ *
+ * @author Tyler Suehr
+ * @version 1.0
+ */
+final class ChipIndex {
+    /* Maps each key to a single chip, or to a list of chips */
+    private final Map<Object, Object> mChips = new HashMap<>();
+
+
+    @SuppressWarnings("unchecked")
+    void add(Object key, Chip chip) {
+        final Object existing = mChips.get(key);
+        if (existing == null) {
+            mChips.put(key, chip);
+        } else if (existing instanceof Chip) {
+            final List<Chip> chips = new ArrayList<>(2);
+            chips.add((Chip)existing);
+            chips.add(chip);
+            mChips.put(key, chips);
+        } else {
+            ((List<Chip>)existing).add(chip);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    void remove(Object key, Chip chip) {
+        final Object existing = mChips.get(key);
+        if (existing == chip) {
+            mChips.remove(key);
+        } else if (existing instanceof List) {
+            final List<Chip> chips = (List<Chip>)existing;
+            chips.remove(chip);
+            if (chips.size() == 1) {
+                mChips.put(key, chips.get(0));
+            }
+        }
+    }
+
+    /**
+     * Finds a chip having the given key that is also in the given set of chips.
+     *
+     * @param key Key of the chip
+     * @param within Set of {@link Chip} to look in
+     * @return {@link Chip}, or null if there isn't one
+     */
+    @SuppressWarnings("unchecked")
+    Chip find(Object key, Set<Chip> within) {
+        final Object existing = mChips.get(key);
+        if (existing instanceof Chip) {
+            return within.contains(existing) ? (Chip)existing : null;
+        } else if (existing != null) {
+            for (Chip chip : (List<Chip>)existing) {
+                if (within.contains(chip)) {
+                    return chip;
+                }
+            }
+        }
+        return null;
+    }
+
+    void clear() {
+        mChips.clear();
+    }
+}
@@ -49,6 +49,7 @@ final class ChipOptions {
     int mMaxRows;
     String mDelimiter;
     boolean mDelimiterRegex;
+    int mFilterDelay;
 
     @NonNull
     ChipImageRenderer mImageRenderer;
@@ -91,6 +92,11 @@ final class ChipOptions {
         mMaxRows = a.getInt(R.styleable.ChipsInputLayout_maxRows, 3);
         mDelimiter = a.getString(R.styleable.ChipsInputLayout_delimiter);
         mDelimiterRegex = a.getBoolean(R.styleable.ChipsInputLayout_delimiterRegex, false);
+        mFilterDelay = a.getInt(R.styleable.ChipsInputLayout_filterDelay, 1500);
+        if (mFilterDelay < 0) {
+            a.recycle();
+            throw new IllegalArgumentException("Filter delay cannot be negative!");
+        }
 
         a.recycle();
 
@@ -0,0 +1,61 @@
+package com.tylersuehr.chips;
+import java.util.List;
+
+/**
+ * Copyright © 2017 Tyler Suehr
+ *
+ * Immutable snapshot of the lists of chips in a {@link ChipDataSource} at some version.
+ *
+ * Components displaying chips should bind against a snapshot instead of the lists of
+ * the data source, so that changes made while they're using the chips, even on another
+ * thread, can't change them under their feet. Once notified of a change, they can swap
+ * to the new snapshot of the data source and update only what the change affected.
+ *
+ * The version of a data source changes every time any of its lists changes, so two
+ * snapshots with the same version from the same data source have the same chips.
+ *
+ * @author Tyler Suehr
+ * @version 1.0
+ */
+public final class ChipSnapshot {
+    private final long mVersion;
+    private final List<Chip> mSelected;
+    private final List<Chip> mFiltered;
+    private final List<Chip> mOriginal;
+
+
+    /**
+     * Constructs a snapshot of the given lists of chips, which must never
+     * change afterwards.
+     *
+     * @param version Version of the data source
+     * @param selected Unmodifiable list of selected {@link Chip}
+     * @param filtered Unmodifiable list of filtered {@link Chip}
+     * @param original Unmodifiable list of original {@link Chip}
+     */
+    public ChipSnapshot(long version, List<Chip> selected, List<Chip> filtered, List<Chip> original) {
+        if (selected == null || filtered == null || original == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        mVersion = version;
+        mSelected = selected;
+        mFiltered = filtered;
+        mOriginal = original;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public List<Chip> getSelectedChips() {
+        return mSelected;
+    }
+
+    public List<Chip> getFilteredChips() {
+        return mFiltered;
+    }
+
+    public List<Chip> getOriginalChips() {
+        return mOriginal;
+    }
+}
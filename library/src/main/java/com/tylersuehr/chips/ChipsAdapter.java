@@ -1,4 +1,5 @@
 package com.tylersuehr.chips;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
 import android.view.View;
@@ -6,6 +7,8 @@ import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
 import android.widget.RelativeLayout;
 
+import java.util.List;
+
 /**
  * Copyright © 2017 Tyler Suehr
  *
@@ -17,20 +20,28 @@ import android.widget.RelativeLayout;
  * (2) Allow user to remove any chip by pressing delete on an empty input.
  * (3) Allow the user to see chip details, if the options permit it.
  *
- * This observes changes to {@link ChipDataSource} to update the UI accordingly.
+ * This observes changes to {@link ChipDataSource} to update the UI accordingly. The
+ * selected chips being displayed come from an immutable {@link ChipSnapshot} of the
+ * data source, so they can't change between binding views. On every change, this
+ * swaps to the new snapshot and updates only the views of the chips that were actually
+ * selected or unselected, using the positions given by the {@link ChipChangeEvent}.
+ * When the data source can't tell what changed, the snapshots are compared using
+ * {@link DiffUtil} instead.
  *
  * @author Tyler Suehr
  * @version 1.0
  */
 class ChipsAdapter
         extends RecyclerView.Adapter<RecyclerView.ViewHolder>
-        implements ChipsEditText.OnKeyboardListener, ChipDataSource.ChangeObserver {
+        implements ChipsEditText.OnKeyboardListener, ChipDataSource.ChangeEventObserver {
     private static final int CHIP  = 0;
     private static final int INPUT = 1;
 
-    private final ChipDataSource mDataSource;
     private final ChipOptions mOptions;
+    private ChipDataSource mDataSource;
     private final ChipsEditText mEditText;
+    /* Selected chips currently being displayed, from a snapshot */
+    private List<Chip> mChips;
 
 
     ChipsAdapter(ChipDataSource dataSource,
@@ -39,6 +50,7 @@ class ChipsAdapter
         mDataSource = dataSource;
         mEditText = editText;
         mOptions = options;
+        mChips = mDataSource.getSnapshot().getSelectedChips();
         mEditText.setKeyboardListener(this);
 
         // Register an observer on the chip data source
@@ -47,14 +59,13 @@ class ChipsAdapter
 
     @Override
     public int getItemViewType(int position) {
-        return position < mDataSource
-                .getSelectedChips().size() ? CHIP : INPUT;
+        return position < mChips.size() ? CHIP : INPUT;
     }
 
     @Override
     public int getItemCount() {
         // Plus 1 for the edit text
-        return mDataSource.getSelectedChips().size() + 1;
+        return mChips.size() + 1;
     }
 
     @Override
@@ -69,9 +80,9 @@ class ChipsAdapter
         if (getItemViewType(position) == CHIP) { // Chips
             // Display the chip information on the chip view
             final ChipHolder ch = (ChipHolder)holder;
-            ch.chipView.inflateFromChip(mDataSource.getSelectedChip(position));
+            ch.chipView.inflateFromChip(mChips.get(position));
         } else { // EditText
-            if (mDataSource.getSelectedChips().size() == 0) {
+            if (mChips.size() == 0) {
                 mEditText.setHint(mOptions.mHint);
             }
 
@@ -93,7 +104,7 @@ class ChipsAdapter
         // Clear the input before taking chip so we don't need to update UI twice
         mEditText.setText("");
 
-        // This will trigger callback, which calls notifyDataSetChanged()
+        // This will trigger callback, which updates the UI
         mDataSource.addSelectedChip(new DefaultCustomChip(text));
     }
 
@@ -106,14 +117,56 @@ class ChipsAdapter
         // Only remove the last chip if the input was empty
         if (mDataSource.getSelectedChips().size() > 0
                 && mEditText.getText().length() == 0) {
-            // Will trigger notifyDataSetChanged()
+            // Will trigger callback, which updates the UI
             mDataSource.replaceChip(mDataSource.getSelectedChips().size() - 1);
         }
     }
 
     @Override
     public void onChipDataSourceChanged() {
-        notifyDataSetChanged();
+        swapChips();
+    }
+
+    @Override
+    public void onChipDataSourceChanged(ChipChangeEvent event) {
+        if (!event.hasChanges(ChipChangeEvent.SELECTED)) {
+            return;
+        }
+        if (event.isReset(ChipChangeEvent.SELECTED)) {
+            swapChips();
+            return;
+        }
+
+        mChips = mDataSource.getSnapshot().getSelectedChips();
+        Utils.dispatchChanges(event, ChipChangeEvent.SELECTED, this);
+
+        // The input follows the last chip, so fit it into the space left
+        notifyItemChanged(mChips.size());
+    }
+
+    /**
+     * Displays the selected chips of the given data source, which already
+     * has the observers of the old one.
+     *
+     * @param dataSource {@link ChipDataSource}
+     */
+    void changeChipDataSource(ChipDataSource dataSource) {
+        mDataSource.removeChangedObserver(this);
+        mDataSource = dataSource;
+        swapChips();
+    }
+
+    private void swapChips() {
+        // Only a few chips are selected at a time, so the diff is cheap
+        // enough to calculate right here
+        final List<Chip> chips = mDataSource.getSnapshot().getSelectedChips();
+        final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                new ChipDiffCallback(mChips, chips), false);
+        mChips = chips;
+        diff.dispatchUpdatesTo(this);
+
+        // The input follows the last chip, so fit it into the space left
+        notifyItemChanged(mChips.size());
     }
 
     private void autoFitEditText() {
@@ -172,7 +225,7 @@ class ChipsAdapter
         detailedChipView.setOnDeleteClicked(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                // Will trigger notifyDataSetChanged()
+                // Will trigger callback, which updates the UI
                 mDataSource.replaceChip(position);
                 detailedChipView.fadeOut();
             }
@@ -236,14 +289,14 @@ class ChipsAdapter
         public void onChipClicked(ChipView v) {
             final int position = getAdapterPosition();
             if (position > -1) {
-                final Chip chip = mDataSource.getSelectedChip(position);
+                final Chip chip = mChips.get(position);
                 showDetailedChipView(v, chip, position);
             }
         }
 
         @Override
         public void onChipDeleted(ChipView v) {
-            // Will trigger notifyDataSetChanged()
+            // Will trigger callback, which updates the UI
             final int position = getAdapterPosition();
             if (position > -1){
                 mDataSource.replaceChip(position);
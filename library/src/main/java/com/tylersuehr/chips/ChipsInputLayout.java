@@ -4,7 +4,6 @@ import android.content.res.ColorStateList;
 import android.content.res.Configuration;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
 import android.support.annotation.DrawableRes;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.widget.RecyclerView;
@@ -18,6 +17,7 @@ import android.view.inputmethod.InputMethodManager;
 import android.widget.RelativeLayout;
 import com.beloo.widget.chipslayoutmanager.ChipsLayoutManager;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -54,6 +54,8 @@ public class ChipsInputLayout extends MaxHeightScrollView
 
     /* Stores reference to callback for text changed events */
     private OnChipsInputTextChangedListener mTextChangedListener;
+    /* Handles text changes of the chips input, and filters once the user stops typing */
+    private ChipInputTextChangedHandler mTextChangedHandler;
     /* Used to validate selected chips */
     private ChipValidator mValidator;
 
@@ -87,6 +89,15 @@ public class ChipsInputLayout extends MaxHeightScrollView
         setMaxHeight(Utils.dp(40) * mOptions.mMaxRows);
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        // Don't filter again after the view is gone
+        if (mTextChangedHandler != null) {
+            removeCallbacks(mTextChangedHandler.mDelayedFilter);
+        }
+    }
+
     @Override
     public void onFilteredChipClick(Chip chip) {
         // Hide the filterable recycler
@@ -118,6 +129,24 @@ public class ChipsInputLayout extends MaxHeightScrollView
         loadFilterableRecycler();
     }
 
+    /**
+     * Appends a batch of chips to the filterable chips, which can be searched
+     * right away, and updates the UI to enable the filterable RecyclerView
+     * accordingly.
+     *
+     * Note: this is meant for chips loaded in batches; to append them from a
+     * background thread, use a {@link ConcurrentChipDataSource} directly.
+     *
+     * @param chips Collection of {@link Chip}
+     */
+    public void appendFilterableChipList(Collection<? extends Chip> chips) {
+        mDataSource.appendFilterableChips(chips);
+
+        // Setup the filterable recycler when new
+        // filterable data has been appended
+        loadFilterableRecycler();
+    }
+
     /**
      * Sets and stores a list of chips that are selected and updates the UI
      * to display them accordingly.
@@ -125,12 +154,21 @@ public class ChipsInputLayout extends MaxHeightScrollView
      * @param chips List of {@link Chip}
      */
     public void setSelectedChipList(List<? extends Chip> chips) {
-        // Set the selected chips in the data source
-        mDataSource.getSelectedChips().clear();
-        mDataSource.getSelectedChips().addAll(chips);
-
-        // Update the chips UI display
-        mChipsAdapter.notifyDataSetChanged();
+        // Set the selected chips in the data source, which will update UI
+        // once, if the data source is able to batch the changes
+        final ObservableChipDataSource batch = (mDataSource instanceof ObservableChipDataSource)
+                ? (ObservableChipDataSource)mDataSource : null;
+        if (batch != null) {
+            batch.beginBatch();
+        }
+        try {
+            mDataSource.clearSelectedChips();
+            mDataSource.addSelectedChips(chips);
+        } finally {
+            if (batch != null) {
+                batch.commit();
+            }
+        }
     }
 
     /**
@@ -187,6 +225,17 @@ public class ChipsInputLayout extends MaxHeightScrollView
         mDataSource.clearSelectedChips();
     }
 
+    /**
+     * Adds all the given chips to the selected chips at once, taking any of
+     * them out of the filterable chips, which will update the UI accordingly
+     * because of the change observers.
+     *
+     * @param chips List of {@link Chip}
+     */
+    public void addSelectedChips(List<? extends Chip> chips) {
+        mDataSource.addSelectedChips(chips);
+    }
+
     /**
      * Gets all the currently selected chips.
      *
@@ -232,12 +281,7 @@ public class ChipsInputLayout extends MaxHeightScrollView
      * @return {@link Chip}
      */
     public Chip getSelectedChipById(Object id) {
-        for (Chip chip : mDataSource.getSelectedChips()) {
-            if (chip.getId() != null && chip.getId().equals(id)) {
-                return chip;
-            }
-        }
-        return null;
+        return mDataSource.getSelectedChipById(id);
     }
 
     /**
@@ -248,9 +292,12 @@ public class ChipsInputLayout extends MaxHeightScrollView
      * @return {@link Chip}
      */
     public Chip getSelectedChipByTitle(String title, boolean exactlyEqual) {
+        if (exactlyEqual) {
+            return mDataSource.getSelectedChipByTitle(title);
+        }
+        final String pattern = title.toLowerCase();
         for (Chip chip : mDataSource.getSelectedChips()) {
-            if ((exactlyEqual && chip.getTitle().equals(title)) ||
-                    (!exactlyEqual && chip.getTitle().toLowerCase().contains(title.toLowerCase()))) {
+            if (chip.getTitle().toLowerCase().contains(pattern)) {
                 return chip;
             }
         }
@@ -292,25 +339,25 @@ public class ChipsInputLayout extends MaxHeightScrollView
      * @return {@link Chip}
      */
     public Chip getFilteredChipById(Object id) {
-        for (Chip chip : mDataSource.getFilteredChips()) {
-            if (chip.getId() != null && chip.getId().equals(id)) {
-                return chip;
-            }
-        }
-        return null;
+        return mDataSource.getFilteredChipById(id);
     }
 
     /**
      * Gets a filtered chip with exactly the given title or like the given title.
      *
+     * Note: for a {@link PagedChipDataSource}, only the loaded chips are searched.
+     *
      * @param title Title to search for
      * @param exactlyEqual True if filtered chip title should exactly match title
      * @return {@link Chip}
      */
     public Chip getFilteredChipByTitle(String title, boolean exactlyEqual) {
-        for (Chip chip : mDataSource.getFilteredChips()) {
-            if ((exactlyEqual && chip.getTitle().equals(title)) ||
-                    (!exactlyEqual && chip.getTitle().toLowerCase().contains(title.toLowerCase()))) {
+        if (exactlyEqual) {
+            return mDataSource.getFilteredChipByTitle(title);
+        }
+        final String pattern = title.toLowerCase();
+        for (Chip chip : getLoadedFilteredChips()) {
+            if (chip != null && chip.getTitle().toLowerCase().contains(pattern)) {
                 return chip;
             }
         }
@@ -320,13 +367,15 @@ public class ChipsInputLayout extends MaxHeightScrollView
     /**
      * Gets a filtered chip with exactly the given subtitle or like the given subtitle.
      *
+     * Note: for a {@link PagedChipDataSource}, only the loaded chips are searched.
+     *
      * @param subtitle Subtitle to search for
      * @param exactlyEqual True if filtered chip subtitle should exactly match subtitle
      * @return {@link Chip}
      */
     public Chip getFilteredChipBySubtitle(String subtitle, boolean exactlyEqual) {
-        for (Chip chip : mDataSource.getFilteredChips()) {
-            if (chip.getSubtitle() == null) { continue; }
+        for (Chip chip : getLoadedFilteredChips()) {
+            if (chip == null || chip.getSubtitle() == null) { continue; }
             if ((exactlyEqual && chip.getSubtitle().equals(subtitle)) ||
                     (!exactlyEqual && chip.getSubtitle().toLowerCase().contains(subtitle.toLowerCase()))) {
                 return chip;
@@ -450,7 +499,13 @@ public class ChipsInputLayout extends MaxHeightScrollView
     public void changeChipDataSource(ChipDataSource dataSource) {
         mDataSource.cloneObservers(dataSource);
         mDataSource = dataSource;
-        mChipsAdapter.notifyDataSetChanged();
+        mChipsAdapter.changeChipDataSource(dataSource);
+        if (mFilteredAdapter != null) {
+            mFilteredAdapter.changeChipDataSource(dataSource);
+        } else if (dataSource instanceof PagedChipDataSource) {
+            // Paged data sources load their own filterable chips
+            loadFilterableRecycler();
+        }
     }
 
     /**
@@ -589,6 +644,19 @@ public class ChipsInputLayout extends MaxHeightScrollView
         setDelimiter(delimiter, false);
     }
 
+    /**
+     * Sets how long to wait after the user stops typing before filtering the
+     * chips again, when a {@link OnChipsInputTextChangedListener} is set.
+     *
+     * @param delay Delay in milliseconds
+     */
+    public void setFilterDelay(int delay) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Filter delay cannot be negative!");
+        }
+        mOptions.mFilterDelay = delay;
+    }
+
     public ChipsEditText getChipsInputEditText() {
         return mChipsInput;
     }
@@ -609,7 +677,8 @@ public class ChipsInputLayout extends MaxHeightScrollView
         if (mChipsInput == null) {
             mChipsInput = new ChipsEditText(getContext());
             mChipsInput.setChipOptions(mOptions);
-            mChipsInput.addTextChangedListener(new ChipInputTextChangedHandler());
+            mTextChangedHandler = new ChipInputTextChangedHandler();
+            mChipsInput.addTextChangedListener(mTextChangedHandler);
         }
         return mChipsInput;
     }
@@ -642,6 +711,17 @@ public class ChipsInputLayout extends MaxHeightScrollView
         }
     }
 
+    /**
+     * Gets the filtered chips that can be searched without loading anything; only
+     * the loaded pages of a {@link PagedChipList}, since getting every chip from it
+     * would load every page.
+     */
+    private List<Chip> getLoadedFilteredChips() {
+        final List<Chip> chips = mDataSource.getFilteredChips();
+        return (chips instanceof PagedChipList)
+                ? ((PagedChipList)chips).getLoadedChips() : chips;
+    }
+
     private void hideKeyboard() {
         ((InputMethodManager)getContext().getSystemService(Context.INPUT_METHOD_SERVICE))
                 .hideSoftInputFromWindow(mChipsInput.getWindowToken(), 0);
@@ -662,6 +742,10 @@ public class ChipsInputLayout extends MaxHeightScrollView
      * (2) Tells the filterable recycler to filter the chips when the user enters text.
      */
     private final class ChipInputTextChangedHandler implements TextWatcher {
+        /* Filters the chips again once the user stops typing */
+        private final DelayedFilter mDelayedFilter = new DelayedFilter();
+
+
         @Override
         public void onTextChanged(CharSequence s, int start, int before, int count) {
             if (mFilteredRecycler != null) {
@@ -683,16 +767,12 @@ public class ChipsInputLayout extends MaxHeightScrollView
             if (mTextChangedListener != null) {
                 mTextChangedListener.onChipsInputTextChanged(s);
 
-                // TODO:
                 // As this is a listener used mostly to dynamically change
-                // the filteredList, a timeout before filtering should be
-                // configured to replace 1500(ms) hardcoded value
-                new Handler().postDelayed(new Runnable() {
-                    @Override
-                    public void run() {
-                        onTextChanged(s, 0, 0, 0);
-                    }
-                }, 1500);
+                // the filtered list, filter again once the user stops typing,
+                // replacing any filtering still pending from earlier keystrokes
+                mDelayedFilter.mText = s;
+                removeCallbacks(mDelayedFilter);
+                postDelayed(mDelayedFilter, mOptions.mFilterDelay);
             }
 
             String delimiter = mOptions.mDelimiter;
@@ -707,6 +787,19 @@ public class ChipsInputLayout extends MaxHeightScrollView
                 }
             }
         }
+
+
+        /**
+         * Filters the chips using the latest text the user entered.
+         */
+        private final class DelayedFilter implements Runnable {
+            private CharSequence mText;
+
+            @Override
+            public void run() {
+                onTextChanged(mText, 0, 0, 0);
+            }
+        }
     }
 
 
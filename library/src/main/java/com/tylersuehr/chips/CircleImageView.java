@@ -26,6 +26,9 @@ import android.util.AttributeSet;
  * Subclass of {@link AppCompatImageView} that will crop the given image into
  * a circular Bitmap image.
  *
+ * A {@link LetterTileDrawable} is already circular, so it's drawn directly into the
+ * circle instead of being copied into a Bitmap first.
+ *
  * @author Tyler Suehr
  * @version 1.0
  */
@@ -53,6 +56,8 @@ public class CircleImageView extends AppCompatImageView {
     private int mFillColor = DEFAULT_FILL_COLOR;
 
     private Bitmap mBitmap;
+    /* Drawn directly instead of a Bitmap, if displayed */
+    private LetterTileDrawable mTileDrawable;
     private BitmapShader mBitmapShader;
     private int mBitmapWidth;
     private int mBitmapHeight;
@@ -178,12 +183,18 @@ public class CircleImageView extends AppCompatImageView {
             return;
         }
 
-        if (mBitmap == null) { return; }
+        if (mBitmap == null && mTileDrawable == null) { return; }
 
         if (mFillColor != Color.TRANSPARENT) {
             canvas.drawCircle(mDrawableRect.centerX(), mDrawableRect.centerY(), mDrawableRadius, mFillPaint);
         }
-        canvas.drawCircle(mDrawableRect.centerX(), mDrawableRect.centerY(), mDrawableRadius, mBitmapPaint);
+        if (mTileDrawable != null) {
+            mTileDrawable.setBounds(Math.round(mDrawableRect.left), Math.round(mDrawableRect.top),
+                    Math.round(mDrawableRect.right), Math.round(mDrawableRect.bottom));
+            mTileDrawable.draw(canvas);
+        } else {
+            canvas.drawCircle(mDrawableRect.centerX(), mDrawableRect.centerY(), mDrawableRadius, mBitmapPaint);
+        }
         if (mBorderWidth > 0) {
             canvas.drawCircle(mBorderRect.centerX(), mBorderRect.centerY(), mBorderRadius, mBorderPaint);
         }
@@ -299,6 +310,9 @@ public class CircleImageView extends AppCompatImageView {
         if (mBitmapPaint != null) {
             mBitmapPaint.setColorFilter(mColorFilter);
         }
+        if (mTileDrawable != null) {
+            mTileDrawable.setColorFilter(mColorFilter);
+        }
     }
 
     private Bitmap getBitmapFromDrawable(Drawable drawable) {
@@ -330,8 +344,13 @@ public class CircleImageView extends AppCompatImageView {
     }
 
     private void initializeBitmap() {
+        final Drawable drawable = getDrawable();
+        mTileDrawable = null;
         if (mDisableCircularTransformation) {
             mBitmap = null;
+        } else if (drawable instanceof LetterTileDrawable) {
+            mBitmap = null;
+            mTileDrawable = (LetterTileDrawable)drawable;
         } else {
             mBitmap = getBitmapFromDrawable(getDrawable());
         }
@@ -346,16 +365,11 @@ public class CircleImageView extends AppCompatImageView {
 
         if (getWidth() == 0 && getHeight() == 0) { return; }
 
-        if (mBitmap == null) {
+        if (mBitmap == null && mTileDrawable == null) {
             invalidate();
             return;
         }
 
-        mBitmapShader = new BitmapShader(mBitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
-
-        mBitmapPaint.setAntiAlias(true);
-        mBitmapPaint.setShader(mBitmapShader);
-
         mBorderPaint.setStyle(Paint.Style.STROKE);
         mBorderPaint.setAntiAlias(true);
         mBorderPaint.setColor(mBorderColor);
@@ -365,9 +379,6 @@ public class CircleImageView extends AppCompatImageView {
         mFillPaint.setAntiAlias(true);
         mFillPaint.setColor(mFillColor);
 
-        mBitmapHeight = mBitmap.getHeight();
-        mBitmapWidth = mBitmap.getWidth();
-
         mBorderRect.set(calculateBounds());
         mBorderRadius = Math.min((mBorderRect.height() - mBorderWidth) / 2.0f, (mBorderRect.width() - mBorderWidth) / 2.0f);
 
@@ -377,8 +388,18 @@ public class CircleImageView extends AppCompatImageView {
         }
         mDrawableRadius = Math.min(mDrawableRect.height() / 2.0f, mDrawableRect.width() / 2.0f);
 
+        if (mBitmap != null) {
+            mBitmapShader = new BitmapShader(mBitmap, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP);
+
+            mBitmapPaint.setAntiAlias(true);
+            mBitmapPaint.setShader(mBitmapShader);
+
+            mBitmapHeight = mBitmap.getHeight();
+            mBitmapWidth = mBitmap.getWidth();
+            updateShaderMatrix();
+        }
+
         applyColorFilter();
-        updateShaderMatrix();
         invalidate();
     }
 
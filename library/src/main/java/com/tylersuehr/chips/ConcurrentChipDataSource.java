@@ -0,0 +1,564 @@
+package com.tylersuehr.chips;
+import android.os.Handler;
+import android.os.Looper;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Copyright © 2017 Tyler Suehr
+ *
+ * Subclass of {@link ObservableChipDataSource} that can be changed from any thread, like
+ * when chips are loaded and merged from several background sources at the same time.
+ *
+ * The chips are managed by a {@link ListChipDataSource}, guarded by a read-write lock so
+ * that writers on any thread are serialized. Writers only record what they changed; an
+ * immutable {@link ChipSnapshot} of the chips is taken once per delivery to observers,
+ * so a burst of writes, like appending chips in batches, doesn't copy the chips for
+ * every write. Chips are looked up using the indexes of the managed data source, under
+ * the read lock, which is only ever held briefly by the main thread.
+ *
+ * Observers are always notified on the main thread. Changes made on other threads are
+ * collected and delivered together, swapping in their snapshot at the same time, so the
+ * snapshot of this on the main thread always matches what observers have been told.
+ * Changes made on the main thread are delivered right away, unless a writer is busy, in
+ * which case they're delivered along with its changes once it's done.
+ *
+ * Filtered chips set by the chip filter never wait on a writer: if the lock is busy,
+ * they're set by whichever thread releases it next. Chips that were selected or removed
+ * meanwhile are left out, and observers are told the filtered chips were reset.
+ *
+ * Note: looking up chips, by ID, by title, or checking if they exist, always uses the
+ * latest chips; positions always refer to the lists of chips returned by this. Batches,
+ * begun with {@link #beginBatch()}, must only be used on the main thread, since that's
+ * where observers are notified; changes from other threads are batched already.
+ *
+ * @author Tyler Suehr
+ * @version 1.0
+ */
+public class ConcurrentChipDataSource extends ObservableChipDataSource
+        implements SearchableChipDataSource {
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean mDeliveryScheduled = new AtomicBoolean();
+    private final Runnable mDelivery = new Runnable() {
+        @Override
+        public void run() {
+            deliverChanges();
+        }
+    };
+
+    /* Chips being managed, only accessed while holding the lock */
+    private final ListChipDataSource mChips;
+
+    /* Changes made by the writer holding the lock, not published yet */
+    private ChipChangeEvent.Builder mWriteEvent = new ChipChangeEvent.Builder();
+    private final Set<Chip> mWriteSelected = new LinkedHashSet<>();
+    private final Set<Chip> mWriteUnselected = new LinkedHashSet<>();
+
+    /* Changes published but not delivered to observers yet, guarded by itself */
+    private final Object mPendingLock = new Object();
+    private ChipChangeEvent.Builder mPendingEvent = new ChipChangeEvent.Builder();
+    private Set<Chip> mPendingSelected = new LinkedHashSet<>();
+    private Set<Chip> mPendingUnselected = new LinkedHashSet<>();
+
+    /* Filtered chips waiting for the lock to be set, or null if there are none */
+    private final AtomicReference<List<? extends Chip>> mPendingFiltered = new AtomicReference<>();
+
+    /* Chips as last delivered to observers */
+    private volatile ChipSnapshot mSnapshot;
+
+
+    /* Construct with all empty lists */
+    public ConcurrentChipDataSource() {
+        this(new ListChipDataSource());
+    }
+
+    /**
+     * Constructs with the given data source managing the chips, like a
+     * {@link TrigramChipDataSource}, which shouldn't be used directly anymore.
+     *
+     * @param chips {@link ListChipDataSource}
+     */
+    public ConcurrentChipDataSource(ListChipDataSource chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        mChips = chips;
+        mChips.addChangedObserver(new PendingChangesRecorder());
+        mChips.addSelectionObserver(new PendingSelectionRecorder());
+        mSnapshot = mChips.getSnapshot();
+    }
+
+    @Override
+    public List<Chip> getSelectedChips() {
+        return mSnapshot.getSelectedChips();
+    }
+
+    @Override
+    public List<Chip> getFilteredChips() {
+        return mSnapshot.getFilteredChips();
+    }
+
+    @Override
+    public List<Chip> getOriginalChips() {
+        return mSnapshot.getOriginalChips();
+    }
+
+    @Override
+    public ChipSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    @Override
+    public Chip getFilteredChip(int position) {
+        return mSnapshot.getFilteredChips().get(position);
+    }
+
+    @Override
+    public Chip getSelectedChip(int position) {
+        return mSnapshot.getSelectedChips().get(position);
+    }
+
+    @Override
+    public Chip getFilteredChipById(Object id) {
+        mLock.readLock().lock();
+        try {
+            return mChips.getFilteredChipById(id);
+        } finally {
+            unlockRead();
+        }
+    }
+
+    @Override
+    public Chip getSelectedChipById(Object id) {
+        mLock.readLock().lock();
+        try {
+            return mChips.getSelectedChipById(id);
+        } finally {
+            unlockRead();
+        }
+    }
+
+    @Override
+    public Chip getFilteredChipByTitle(String title) {
+        mLock.readLock().lock();
+        try {
+            return mChips.getFilteredChipByTitle(title);
+        } finally {
+            unlockRead();
+        }
+    }
+
+    @Override
+    public Chip getSelectedChipByTitle(String title) {
+        mLock.readLock().lock();
+        try {
+            return mChips.getSelectedChipByTitle(title);
+        } finally {
+            unlockRead();
+        }
+    }
+
+    @Override
+    public List<Chip> findChips(String pattern) {
+        if (!(mChips instanceof SearchableChipDataSource)) {
+            return null;
+        }
+        mLock.readLock().lock();
+        try {
+            return ((SearchableChipDataSource)mChips).findChips(pattern);
+        } finally {
+            unlockRead();
+        }
+    }
+
+    @Override
+    public void setFilterableChips(List<? extends Chip> chips) {
+        mLock.writeLock().lock();
+        try {
+            mChips.setFilterableChips(chips);
+        } finally {
+            publishAndUnlock();
+        }
+        scheduleDelivery();
+    }
+
+    /**
+     * Sets the given filtered chips right away if the lock is free, otherwise
+     * leaves them to be set by whichever thread releases the lock next, so the
+     * chip filter never waits on a writer.
+     */
+    @Override
+    public void setFilteredChips(List<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        mPendingFiltered.set(chips);
+        setPendingFilteredChips();
+    }
+
+    @Override
+    public void takeChip(Chip chip) {
+        mLock.writeLock().lock();
+        try {
+            mChips.takeChip(chip);
+        } finally {
+            publishAndUnlock();
+        }
+        scheduleDelivery();
+    }
+
+    @Override
+    public void takeChip(int position) {
+        mLock.writeLock().lock();
+        try {
+            mChips.takeChip(getFilteredChip(position));
+        } finally {
+            publishAndUnlock();
+        }
+        scheduleDelivery();
+    }
+
+    @Override
+    public void replaceChip(Chip chip) {
+        mLock.writeLock().lock();
+        try {
+            mChips.replaceChip(chip);
+        } finally {
+            publishAndUnlock();
+        }
+        scheduleDelivery();
+    }
+
+    @Override
+    public void replaceChip(int position) {
+        mLock.writeLock().lock();
+        try {
+            mChips.replaceChip(getSelectedChip(position));
+        } finally {
+            publishAndUnlock();
+        }
+        scheduleDelivery();
+    }
+
+    @Override
+    public void addFilteredChip(Chip chip) {
+        mLock.writeLock().lock();
+        try {
+            mChips.addFilteredChip(chip);
+        } finally {
+            publishAndUnlock();
+        }
+        scheduleDelivery();
+    }
+
+    @Override
+    public void addSelectedChip(Chip chip) {
+        mLock.writeLock().lock();
+        try {
+            mChips.addSelectedChip(chip);
+        } finally {
+            publishAndUnlock();
+        }
+        scheduleDelivery();
+    }
+
+    /**
+     * Appends the given chips, which can be done from a loader thread while
+     * the user is filtering; appending several batches before the main
+     * thread catches up only notifies observers once.
+     */
+    @Override
+    public void appendFilterableChips(Collection<? extends Chip> chips) {
+        mLock.writeLock().lock();
+        try {
+            mChips.appendFilterableChips(chips);
+        } finally {
+            publishAndUnlock();
+        }
+        scheduleDelivery();
+    }
+
+    @Override
+    public void addSelectedChips(Collection<? extends Chip> chips) {
+        mLock.writeLock().lock();
+        try {
+            mChips.addSelectedChips(chips);
+        } finally {
+            publishAndUnlock();
+        }
+        scheduleDelivery();
+    }
+
+    @Override
+    public void takeChips(Collection<? extends Chip> chips) {
+        mLock.writeLock().lock();
+        try {
+            mChips.takeChips(chips);
+        } finally {
+            publishAndUnlock();
+        }
+        scheduleDelivery();
+    }
+
+    @Override
+    public void replaceChips(Collection<? extends Chip> chips) {
+        mLock.writeLock().lock();
+        try {
+            mChips.replaceChips(chips);
+        } finally {
+            publishAndUnlock();
+        }
+        scheduleDelivery();
+    }
+
+    @Override
+    public void clearFilteredChips() {
+        mLock.writeLock().lock();
+        try {
+            mChips.clearFilteredChips();
+        } finally {
+            publishAndUnlock();
+        }
+        scheduleDelivery();
+    }
+
+    @Override
+    public void clearSelectedChips() {
+        mLock.writeLock().lock();
+        try {
+            mChips.clearSelectedChips();
+        } finally {
+            publishAndUnlock();
+        }
+        scheduleDelivery();
+    }
+
+    @Override
+    public boolean existsInFiltered(Chip chip) {
+        mLock.readLock().lock();
+        try {
+            return mChips.existsInFiltered(chip);
+        } finally {
+            unlockRead();
+        }
+    }
+
+    @Override
+    public boolean existsInSelected(Chip chip) {
+        mLock.readLock().lock();
+        try {
+            return mChips.existsInSelected(chip);
+        } finally {
+            unlockRead();
+        }
+    }
+
+    @Override
+    public boolean existsInDataSource(Chip chip) {
+        mLock.readLock().lock();
+        try {
+            return mChips.existsInDataSource(chip);
+        } finally {
+            unlockRead();
+        }
+    }
+
+    /**
+     * Delivers the pending changes right away on the main thread, otherwise
+     * posts their delivery to the main thread, unless it's already posted.
+     */
+    private void scheduleDelivery() {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            deliverChanges();
+        } else if (mDeliveryScheduled.compareAndSet(false, true)) {
+            mMainHandler.post(mDelivery);
+        }
+    }
+
+    /**
+     * Publishes the changes made by the writer holding the lock, then releases the
+     * lock. Holding the lock while publishing keeps the changes in the same order
+     * as they were made.
+     */
+    private void publishAndUnlock() {
+        try {
+            if (mWriteEvent.isEmpty() && mWriteSelected.isEmpty() && mWriteUnselected.isEmpty()) {
+                return;
+            }
+            synchronized (mPendingLock) {
+                mPendingEvent.append(mWriteEvent.build());
+                for (Chip chip : mWriteSelected) {
+                    // Selecting a chip that's pending to be unselected cancels both out
+                    if (!mPendingUnselected.remove(chip)) {
+                        mPendingSelected.add(chip);
+                    }
+                }
+                for (Chip chip : mWriteUnselected) {
+                    if (!mPendingSelected.remove(chip)) {
+                        mPendingUnselected.add(chip);
+                    }
+                }
+            }
+            mWriteEvent = new ChipChangeEvent.Builder();
+            mWriteSelected.clear();
+            mWriteUnselected.clear();
+        } finally {
+            mLock.writeLock().unlock();
+        }
+        setPendingFilteredChips();
+    }
+
+    /**
+     * Releases the read lock, then sets any filtered chips left waiting for it.
+     */
+    private void unlockRead() {
+        mLock.readLock().unlock();
+        setPendingFilteredChips();
+    }
+
+    /**
+     * Sets the filtered chips left waiting for the lock, unless it's busy, in which
+     * case the thread holding it does so once it releases the lock.
+     *
+     * If nothing else is pending, the filtered chips are swapped into the snapshot
+     * without notifying observers, like {@link ListChipDataSource} does. Otherwise,
+     * they're delivered as a reset, after the pending changes they came after.
+     */
+    private void setPendingFilteredChips() {
+        while (mPendingFiltered.get() != null && mLock.writeLock().tryLock()) {
+            try {
+                final List<? extends Chip> chips = mPendingFiltered.getAndSet(null);
+                if (chips == null) {
+                    continue;
+                }
+                mChips.setFilteredChips(chips);
+
+                // Chips selected or removed after they were filtered are left out
+                final boolean stale = (mChips.getFilteredChips().size() != chips.size());
+                synchronized (mPendingLock) {
+                    if (!stale && mPendingEvent.isEmpty() && mPendingSelected.isEmpty()
+                            && mPendingUnselected.isEmpty()) {
+                        mSnapshot = mChips.getSnapshot();
+                    } else {
+                        mPendingEvent.reset(ChipChangeEvent.FILTERED);
+                    }
+                }
+            } finally {
+                mLock.writeLock().unlock();
+            }
+            scheduleDelivery();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the chips, and notifies observers of all the pending
+     * changes at once. This must be called on the main thread.
+     *
+     * The snapshot is only taken while no writer is busy, so that it matches the
+     * pending changes; otherwise, the writer schedules another delivery once
+     * it's done, so the main thread never waits on it.
+     */
+    private void deliverChanges() {
+        // Changes made after this will schedule another delivery
+        mDeliveryScheduled.set(false);
+        if (!mLock.readLock().tryLock()) {
+            return;
+        }
+
+        final ChipChangeEvent event;
+        final Set<Chip> selected;
+        final Set<Chip> unselected;
+        try {
+            synchronized (mPendingLock) {
+                if (mPendingEvent.isEmpty() && mPendingSelected.isEmpty()
+                        && mPendingUnselected.isEmpty()) {
+                    return;
+                }
+                event = mPendingEvent.build();
+                selected = mPendingSelected;
+                unselected = mPendingUnselected;
+                mPendingEvent = new ChipChangeEvent.Builder();
+                mPendingSelected = new LinkedHashSet<>();
+                mPendingUnselected = new LinkedHashSet<>();
+            }
+
+            // Only the main thread takes snapshots under the read lock, and
+            // other readers never touch the copies the snapshot is made of
+            mSnapshot = mChips.getSnapshot();
+        } finally {
+            unlockRead();
+        }
+
+        // Notify observers outside of the lock, so they can change this too
+        beginBatch();
+        try {
+            if (!event.getChanges().isEmpty()) {
+                notifyDataSourceChanged(event);
+            }
+            for (Chip chip : selected) {
+                notifyChipSelected(chip);
+            }
+            for (Chip chip : unselected) {
+                notifyChipUnselected(chip);
+            }
+        } finally {
+            commit();
+        }
+    }
+
+    /**
+     * Records the changes made to the chips, while the lock is held, until
+     * they're published.
+     */
+    private final class PendingChangesRecorder implements ChangeEventObserver {
+        @Override
+        public void onChipDataSourceChanged() {
+            mWriteEvent.append(ChipChangeEvent.everythingChanged());
+        }
+
+        @Override
+        public void onChipDataSourceChanged(ChipChangeEvent event) {
+            mWriteEvent.append(event);
+        }
+    }
+
+
+    /**
+     * Records the chips selected and unselected, while the lock is held, until
+     * they're published.
+     */
+    private final class PendingSelectionRecorder implements BatchSelectionObserver {
+        @Override
+        public void onChipSelected(Chip addedChip) {
+            // Selecting a chip that's pending to be unselected cancels both out
+            if (!mWriteUnselected.remove(addedChip)) {
+                mWriteSelected.add(addedChip);
+            }
+        }
+
+        @Override
+        public void onChipDeselected(Chip removedChip) {
+            // Unselecting a chip that's pending to be selected cancels both out
+            if (!mWriteSelected.remove(removedChip)) {
+                mWriteUnselected.add(removedChip);
+            }
+        }
+
+        @Override
+        public void onChipsSelectionChanged(List<Chip> selectedChips, List<Chip> unselectedChips) {
+            for (Chip chip : selectedChips) {
+                onChipSelected(chip);
+            }
+            for (Chip chip : unselectedChips) {
+                onChipDeselected(chip);
+            }
+        }
+    }
+}
@@ -0,0 +1,512 @@
+package com.tylersuehr.chips;
+import android.database.Cursor;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.widget.FilterQueryProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Copyright © 2017 Tyler Suehr
+ *
+ * Subclass of {@link PagedChipDataSource} that wraps a {@link Cursor}, like the one
+ * given by a loader of the user's contacts, instead of a list of chips.
+ *
+ * Nothing is read from the cursor up front; the indexes of its columns are resolved once,
+ * and chips are only created for the pages of rows being displayed. Each chip keeps the
+ * values of its own row, and only parses its avatar URI when it's asked for, so opening
+ * a directory of thousands of rows costs about as much as opening one of a few rows.
+ *
+ * Filtering scans the title and subtitle of every row on a background thread, matching
+ * them the same way as the other data sources. To filter using a query instead, like a
+ * ContentProvider filter URI, set a {@link FilterQueryProvider} giving a cursor with
+ * the rows matching a pattern, using the same columns.
+ *
+ * The rows are displayed in the order of the cursor. Selected chips are left out of
+ * them by their positions in the cursor, or by their IDs if an ID column is given.
+ *
+ * Note: the cursor is read on background threads, so it must not be used elsewhere
+ * while this is wrapping it, and {@link #swapCursor(Cursor)} must be called on the
+ * main thread. The rows are matched without holding the lock on the cursors, so the
+ * main thread doesn't wait for a scan; swapping the cursor stops any scan of the old
+ * one, and only waits for the row being read. This never closes the cursors it wraps,
+ * only the ones given by the filter query, once they're no longer needed.
+ *
+ * @author Tyler Suehr
+ * @version 1.0
+ */
+public class CursorChipDataSource extends PagedChipDataSource {
+    /* Guards the fields below, and is only held briefly */
+    private final Object mLock = new Object();
+    /* Held while reading rows of the cursors, which are read on background threads */
+    private final Object mReadLock = new Object();
+    private final String mIdColumn;
+    private final String mTitleColumn;
+    private final String mSubtitleColumn;
+    private final String mAvatarUriColumn;
+
+    /* Cursor being wrapped, and the indexes of its columns */
+    private volatile Cursor mCursor;
+    private Columns mColumns;
+    private FilterQueryProvider mFilterQueryProvider;
+    /* Incremented every time the cursor or filter query changes, which
+       stops any rows of the old ones being built */
+    private volatile int mGeneration;
+    /* Last rows of all chips, and of the chips matching the last pattern,
+       so each page doesn't have to match them again */
+    private Rows mAllRows;
+    private Rows mLastRows;
+
+
+    /**
+     * Constructs with the given cursor and names of the columns of the chips.
+     *
+     * @param cursor {@link Cursor}, or null until {@link #swapCursor(Cursor)}
+     * @param idColumn Column of the chip IDs, or null
+     * @param titleColumn Column of the chip titles
+     * @param subtitleColumn Column of the chip subtitles, or null
+     * @param avatarUriColumn Column of the chip avatar URIs, or null
+     */
+    public CursorChipDataSource(Cursor cursor, String idColumn, String titleColumn,
+                                String subtitleColumn, String avatarUriColumn) {
+        if (titleColumn == null) {
+            throw new NullPointerException("Title column cannot be null!");
+        }
+        mIdColumn = idColumn;
+        mTitleColumn = titleColumn;
+        mSubtitleColumn = subtitleColumn;
+        mAvatarUriColumn = avatarUriColumn;
+        if (cursor != null) {
+            swapCursor(cursor);
+        }
+    }
+
+    /**
+     * Wraps the given cursor instead of the current one, and refreshes the
+     * filterable chips. This must be called on the main thread.
+     *
+     * @param cursor {@link Cursor}, or null for no chips
+     * @return The cursor that was wrapped before, or null
+     */
+    public Cursor swapCursor(Cursor cursor) {
+        final Cursor oldCursor;
+        final Rows lastRows;
+        synchronized (mLock) {
+            mGeneration++;
+            oldCursor = mCursor;
+            lastRows = mLastRows;
+            mCursor = cursor;
+            mColumns = (cursor != null) ? new Columns(cursor) : null;
+            mAllRows = null;
+            mLastRows = null;
+        }
+        // The old cursor may be closed once this returns
+        closeRows(lastRows, oldCursor);
+        refresh();
+        return oldCursor;
+    }
+
+    public Cursor getCursor() {
+        return mCursor;
+    }
+
+    /**
+     * Sets the query giving the rows matching a filter pattern, which is run
+     * on a background thread, then refreshes the filterable chips.
+     *
+     * @param provider {@link FilterQueryProvider}, or null to scan the rows
+     */
+    public void setFilterQueryProvider(FilterQueryProvider provider) {
+        final Cursor cursor;
+        final Rows lastRows;
+        synchronized (mLock) {
+            mGeneration++;
+            mFilterQueryProvider = provider;
+            cursor = mCursor;
+            lastRows = mLastRows;
+            mLastRows = null;
+        }
+        closeRows(lastRows, cursor);
+        refresh();
+    }
+
+    public FilterQueryProvider getFilterQueryProvider() {
+        synchronized (mLock) {
+            return mFilterQueryProvider;
+        }
+    }
+
+    @Override
+    protected int countChips(String pattern, List<Chip> excluded) {
+        synchronized (mReadLock) {
+            final Rows rows = getRows(pattern, excluded);
+            return (rows == null) ? 0 : rows.size();
+        }
+    }
+
+    @Override
+    protected List<Chip> loadChips(String pattern, List<Chip> excluded, int start, int count) {
+        synchronized (mReadLock) {
+            final Rows rows = getRows(pattern, excluded);
+            if (rows == null) {
+                return Collections.emptyList();
+            }
+
+            // The cursor may have changed since these chips were counted
+            final int end = Math.min(start + count, rows.size());
+            final List<Chip> chips = new ArrayList<>(Math.max(end - start, 0));
+            for (int i = start; i < end; i++) {
+                final int position = rows.getPosition(i);
+                if (!rows.cursor.moveToPosition(position)) {
+                    break;
+                }
+                chips.add(new CursorChip((rows.cursor == mCursor) ? rows.cursor : null,
+                        rows.cursor, position, rows.columns));
+            }
+            return chips;
+        }
+    }
+
+    /**
+     * Gets the rows matching the given pattern, leaving out the given chips,
+     * reusing the last rows if they match. New rows are built without holding
+     * the lock, then kept if the cursor hasn't changed meanwhile. This must
+     * hold the read lock.
+     *
+     * @return Rows, or null if there's no cursor
+     */
+    private Rows getRows(String pattern, List<Chip> excluded) {
+        while (true) {
+            final int generation;
+            final Cursor cursor;
+            final Columns columns;
+            final FilterQueryProvider provider;
+            synchronized (mLock) {
+                if (mCursor == null) {
+                    return null;
+                }
+                if (pattern.length() == 0) {
+                    if (mAllRows != null && mAllRows.excluded == excluded) {
+                        return mAllRows;
+                    }
+                } else if (mLastRows != null && mLastRows.pattern.equals(pattern)
+                        && mLastRows.excluded == excluded) {
+                    return mLastRows;
+                }
+                generation = mGeneration;
+                cursor = mCursor;
+                columns = mColumns;
+                provider = mFilterQueryProvider;
+            }
+
+            final Rows rows;
+            if (pattern.length() == 0) {
+                final int[] skipped = getExcludedPositions(generation, cursor, columns, excluded);
+                rows = (skipped == null) ? null
+                        : new Rows(pattern, excluded, cursor, columns, null, skipped);
+            } else if (provider != null) {
+                rows = queryRows(generation, provider, cursor, columns, pattern, excluded);
+            } else {
+                rows = scanRows(generation, cursor, columns, pattern, excluded);
+            }
+
+            final Rows oldRows;
+            synchronized (mLock) {
+                if (rows == null || generation != mGeneration) {
+                    // The cursor or filter query changed meanwhile, so
+                    // build the rows again from the new ones
+                    oldRows = rows;
+                } else if (pattern.length() == 0) {
+                    mAllRows = rows;
+                    return rows;
+                } else {
+                    oldRows = mLastRows;
+                    mLastRows = rows;
+                }
+            }
+            // This holds the read lock, so nothing is reading the old rows
+            if (oldRows != null && oldRows.cursor != cursor) {
+                oldRows.cursor.close();
+            }
+            if (oldRows != rows) {
+                return rows;
+            }
+        }
+    }
+
+    /**
+     * Closes the cursor of the given rows if it was given by the filter query,
+     * once nothing is reading it. Any rows being built from the old cursor
+     * or filter query stop at the next row.
+     */
+    private void closeRows(Rows rows, Cursor wrapped) {
+        synchronized (mReadLock) {
+            if (rows != null && rows.cursor != wrapped) {
+                rows.cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Finds the rows of the given cursor matching the given pattern, skipping
+     * the positions of the given chips.
+     *
+     * @return Rows, or null if the cursor changed before they were found
+     */
+    private Rows scanRows(int generation, Cursor cursor, Columns columns,
+                          String pattern, List<Chip> excluded) {
+        final int[] skipped = getExcludedPositions(generation, cursor, columns, excluded);
+        if (skipped == null) {
+            return null;
+        }
+        final int size = cursor.getCount();
+        int[] positions = new int[16];
+        int count = 0;
+        for (int position = 0; position < size; position++) {
+            if (generation != mGeneration) {
+                return null;
+            }
+            if (Arrays.binarySearch(skipped, position) >= 0
+                    || !cursor.moveToPosition(position)) {
+                continue;
+            }
+            if (matches(cursor, columns, pattern)) {
+                if (count == positions.length) {
+                    positions = Arrays.copyOf(positions, count * 2);
+                }
+                positions[count++] = position;
+            }
+        }
+        return new Rows(pattern, excluded, cursor, columns,
+                Arrays.copyOf(positions, count), null);
+    }
+
+    /**
+     * Runs the filter query for the given pattern, skipping the rows with the
+     * IDs of the given chips.
+     *
+     * @return Rows, or null if the filter query changed before they were found
+     */
+    private Rows queryRows(int generation, FilterQueryProvider provider, Cursor wrapped,
+                           Columns wrappedColumns, String pattern, List<Chip> excluded) {
+        final Cursor cursor = provider.runQuery(pattern);
+        if (cursor == null) {
+            return new Rows(pattern, excluded, wrapped, wrappedColumns, new int[0], null);
+        }
+        final Columns columns = new Columns(cursor);
+        final Set<Object> ids = getExcludedIds(excluded);
+        final int size = cursor.getCount();
+        int[] positions = new int[size];
+        int count = 0;
+        for (int position = 0; position < size; position++) {
+            if (generation != mGeneration) {
+                cursor.close();
+                return null;
+            }
+            if (!cursor.moveToPosition(position)) {
+                continue;
+            }
+            if (ids.isEmpty() || columns.id < 0 || !ids.contains(cursor.getString(columns.id))) {
+                positions[count++] = position;
+            }
+        }
+        if (count < size) {
+            positions = Arrays.copyOf(positions, count);
+        }
+        return new Rows(pattern, excluded, cursor, columns, positions, null);
+    }
+
+    /**
+     * Gets the sorted positions in the given cursor of the given chips,
+     * finding the chips that weren't loaded from it by their IDs.
+     *
+     * @return Positions, or null if the cursor changed before they were found
+     */
+    private int[] getExcludedPositions(int generation, Cursor cursor, Columns columns,
+                                       List<Chip> excluded) {
+        if (excluded.isEmpty()) {
+            return new int[0];
+        }
+        int[] positions = new int[excluded.size()];
+        int count = 0;
+        final Set<Object> ids = new HashSet<>();
+        for (Chip chip : excluded) {
+            if (chip instanceof CursorChip && ((CursorChip)chip).mCursor == cursor) {
+                positions[count++] = ((CursorChip)chip).mPosition;
+            } else if (chip.getId() != null) {
+                ids.add(chip.getId().toString());
+            }
+        }
+        if (!ids.isEmpty() && columns.id >= 0) {
+            final int size = cursor.getCount();
+            for (int position = 0; position < size && !ids.isEmpty(); position++) {
+                if (generation != mGeneration) {
+                    return null;
+                }
+                if (cursor.moveToPosition(position)
+                        && ids.remove(cursor.getString(columns.id))) {
+                    if (count == positions.length) {
+                        positions = Arrays.copyOf(positions, count * 2);
+                    }
+                    positions[count++] = position;
+                }
+            }
+        }
+        positions = Arrays.copyOf(positions, count);
+        Arrays.sort(positions);
+        return positions;
+    }
+
+    private static Set<Object> getExcludedIds(List<Chip> excluded) {
+        final Set<Object> ids = new HashSet<>();
+        for (Chip chip : excluded) {
+            if (chip.getId() != null) {
+                ids.add(chip.getId().toString());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Checks if the title or subtitle of the current row contains the given
+     * pattern, like {@link Chip#matchesFilter(String)}.
+     */
+    private static boolean matches(Cursor cursor, Columns columns, String pattern) {
+        final String title = cursor.getString(columns.title);
+        if (title != null && title.toLowerCase().contains(pattern)) {
+            return true;
+        }
+        final String subtitle = (columns.subtitle >= 0) ? cursor.getString(columns.subtitle) : null;
+        return subtitle != null && Utils.removeWhitespace(subtitle.toLowerCase()).contains(pattern);
+    }
+
+
+    /**
+     * Indexes of the columns of the chips in a cursor, resolved once.
+     */
+    private final class Columns {
+        final int id;
+        final int title;
+        final int subtitle;
+        final int avatarUri;
+
+        Columns(Cursor cursor) {
+            this.id = (mIdColumn != null) ? cursor.getColumnIndexOrThrow(mIdColumn) : -1;
+            this.title = cursor.getColumnIndexOrThrow(mTitleColumn);
+            this.subtitle = (mSubtitleColumn != null)
+                    ? cursor.getColumnIndexOrThrow(mSubtitleColumn) : -1;
+            this.avatarUri = (mAvatarUriColumn != null)
+                    ? cursor.getColumnIndexOrThrow(mAvatarUriColumn) : -1;
+        }
+    }
+
+
+    /**
+     * Rows of a cursor matching a pattern, either as their positions, or as
+     * all the rows except the skipped positions.
+     */
+    private static final class Rows {
+        final String pattern;
+        final List<Chip> excluded;
+        final Cursor cursor;
+        final Columns columns;
+        /* Sorted positions of the matching rows, or null for all rows */
+        final int[] positions;
+        /* Sorted positions of the rows left out of all rows */
+        final int[] skipped;
+
+        Rows(String pattern, List<Chip> excluded, Cursor cursor, Columns columns,
+             int[] positions, int[] skipped) {
+            this.pattern = pattern;
+            this.excluded = excluded;
+            this.cursor = cursor;
+            this.columns = columns;
+            this.positions = positions;
+            this.skipped = skipped;
+        }
+
+        int size() {
+            return (positions != null) ? positions.length : cursor.getCount() - skipped.length;
+        }
+
+        /**
+         * Gets the position in the cursor of the row at the given index.
+         */
+        int getPosition(int index) {
+            if (positions != null) {
+                return positions[index];
+            }
+            // Every skipped position before the row shifts it by one
+            int position = index;
+            for (int skippedPosition : skipped) {
+                if (skippedPosition > position) {
+                    break;
+                }
+                position++;
+            }
+            return position;
+        }
+    }
+
+
+    /**
+     * Nested inner-subclass of {@link Chip} holding the values of a row of a
+     * cursor, which only parses its avatar URI when needed.
+     */
+    private static final class CursorChip extends Chip {
+        /* Cursor wrapped when this was loaded, or null if filtered by a query */
+        private final Cursor mCursor;
+        private final int mPosition;
+        private final String mId;
+        private final String mTitle;
+        private final String mSubtitle;
+        private final String mAvatarUriString;
+        private Uri mAvatarUri;
+
+
+        /**
+         * Constructs with the values of the current row of the given cursor.
+         */
+        CursorChip(Cursor wrapped, Cursor cursor, int position, Columns columns) {
+            final String title = cursor.getString(columns.title);
+            mCursor = wrapped;
+            mPosition = position;
+            mId = (columns.id >= 0) ? cursor.getString(columns.id) : null;
+            mTitle = (title != null) ? title : "";
+            mSubtitle = (columns.subtitle >= 0) ? cursor.getString(columns.subtitle) : null;
+            mAvatarUriString = (columns.avatarUri >= 0) ? cursor.getString(columns.avatarUri) : null;
+        }
+
+        @Override
+        public Object getId() {
+            return mId;
+        }
+
+        @Override
+        public String getTitle() {
+            return mTitle;
+        }
+
+        @Override
+        public String getSubtitle() {
+            return mSubtitle;
+        }
+
+        @Override
+        public Uri getAvatarUri() {
+            if (mAvatarUri == null && mAvatarUriString != null) {
+                mAvatarUri = Uri.parse(mAvatarUriString);
+            }
+            return mAvatarUri;
+        }
+
+        @Override
+        public Drawable getAvatarDrawable() {
+            return null;
+        }
+    }
+}
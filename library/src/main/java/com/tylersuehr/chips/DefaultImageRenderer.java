@@ -1,5 +1,7 @@
 package com.tylersuehr.chips;
 
+import android.graphics.drawable.Drawable;
+import android.text.TextUtils;
 import android.widget.ImageView;
 
 /**
@@ -13,6 +15,10 @@ import android.widget.ImageView;
  * (2) Try to load the avatar drawable, or
  * (3) Load a circular tile with a letter.
  *
+ * The letter tile is a {@link LetterTileDrawable}, drawn straight onto the view. When the
+ * view is already displaying one, like when it's rebound to another chip, that same tile
+ * is updated instead of creating a new one.
+ *
  * @author Tyler Suehr
  * @version 1.0
  */
@@ -23,10 +29,16 @@ class DefaultImageRenderer implements ChipImageRenderer {
             imageView.setImageURI(chip.getAvatarUri());
         } else if (chip.getAvatarDrawable() != null) {
             imageView.setImageDrawable(chip.getAvatarDrawable());
+        } else if (TextUtils.isEmpty(chip.getTitle())) {
+            imageView.setImageDrawable(null);
         } else {
-            imageView.setImageBitmap(LetterTileProvider
-                    .getInstance(imageView.getContext())
-                    .getLetterTile(chip.getTitle()));
+            final LetterTileProvider provider = LetterTileProvider
+                    .getInstance(imageView.getContext());
+            final Drawable current = imageView.getDrawable();
+            if (!(current instanceof LetterTileDrawable) || !provider
+                    .updateLetterTileDrawable((LetterTileDrawable)current, chip.getTitle())) {
+                imageView.setImageDrawable(provider.getLetterTileDrawable(chip.getTitle()));
+            }
         }
     }
 }
\ No newline at end of file
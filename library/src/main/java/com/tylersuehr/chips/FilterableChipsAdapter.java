@@ -1,6 +1,10 @@
 package com.tylersuehr.chips;
 
 import android.graphics.PorterDuff;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
@@ -10,6 +14,11 @@ import android.widget.Filter;
 import android.widget.Filterable;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
 /**
  * Copyright © 2017 Tyler Suehr
  *
@@ -20,18 +29,44 @@ import android.widget.TextView;
  * update the UI accordingly. It should also allow the user to press on a
  * filterable chip item to select it.
  *
- * This observes changes to {@link ChipDataSource} to update its UI accordingly.
+ * This observes changes to {@link ChipDataSource} to update its UI accordingly. The
+ * filtered chips being displayed come from an immutable {@link ChipSnapshot} of the
+ * data source, or from the chip filter, so they can't change between binding views.
+ * On every change, this swaps to the new snapshot and updates only the views of the
+ * chips that were affected, using the positions given by the {@link ChipChangeEvent},
+ * so that selecting a chip only removes its own view instead of rebinding every view.
+ * When the data source can't tell what changed, the snapshots are compared on a
+ * background thread using {@link DiffUtil} instead. Only the latest diff gets
+ * dispatched; older ones are dropped once they're out of date. When either snapshot
+ * is empty, or too large for a diff to finish quickly, the views are all rebound
+ * instead.
+ *
+ * The filtered chips of a {@link PagedChipDataSource} are never diffed, since that would
+ * load every page; chips whose page isn't loaded yet are displayed as placeholders, and
+ * get bound once the data source tells this they were loaded.
  *
  * @author Tyler Suehr
  * @version 1.0
  */
 class FilterableChipsAdapter
         extends RecyclerView.Adapter<FilterableChipsAdapter.Holder>
-        implements Filterable, ChipDataSource.ChangeObserver {
+        implements Filterable, ChipDataSource.ChangeEventObserver {
+    /* Used to calculate diffs of the filtered chips off the main thread */
+    private static final Executor DIFF_EXECUTOR = AsyncTask.THREAD_POOL_EXECUTOR;
+    /* Most chips either list can have for a diff to be worth calculating */
+    private static final int MAX_DIFF_SIZE = 2000;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
     private final OnFilteredChipClickListener mListener;
-    private final ChipDataSource mDataSource;
     private final ChipOptions mOptions;
+    private ChipDataSource mDataSource;
     private ChipFilter mFilter;
+    /* Filtered chips currently being displayed */
+    private List<Chip> mChips;
+    /* Incremented every time the displayed chips are replaced */
+    private int mChipsGeneration;
+    /* True while a diff of the displayed chips is being calculated */
+    private boolean mDiffPending;
 
 
     FilterableChipsAdapter(ChipDataSource chipDataSource,
@@ -40,6 +75,7 @@ class FilterableChipsAdapter
         mDataSource = chipDataSource;
         mOptions = chipOptions;
         mListener = listener;
+        mChips = mDataSource.getSnapshot().getFilteredChips();
 
         // Register an observer on chip data source
         mDataSource.addChangedObserver(this);
@@ -47,7 +83,7 @@ class FilterableChipsAdapter
 
     @Override
     public int getItemCount() {
-        return mDataSource.getFilteredChips().size();
+        return mChips.size();
     }
 
     @Override
@@ -59,7 +95,14 @@ class FilterableChipsAdapter
 
     @Override
     public void onBindViewHolder(Holder holder, int position) {
-        final Chip chip = mDataSource.getFilteredChip(position);
+        final Chip chip = mChips.get(position);
+        if (chip == null) {
+            // Display a placeholder until the chip is loaded
+            holder.image.setImageDrawable(null);
+            holder.title.setText(null);
+            holder.subtitle.setVisibility(View.GONE);
+            return;
+        }
 
         // Set the chip avatar, if possible
         mOptions.mImageRenderer.renderAvatar(holder.image, chip);
@@ -98,6 +141,136 @@ class FilterableChipsAdapter
 
     @Override
     public void onChipDataSourceChanged() {
+        // Any filtering in progress used chips that may have changed
+        if (mFilter != null) {
+            mFilter.invalidate();
+        }
+        diffChips();
+    }
+
+    @Override
+    public void onChipDataSourceChanged(ChipChangeEvent event) {
+        if (!event.hasChanges(ChipChangeEvent.FILTERED)
+                && !event.hasChanges(ChipChangeEvent.ORIGINAL)) {
+            return;
+        }
+
+        // Any filtering in progress used chips that may have changed,
+        // unless they were only loaded
+        if (mFilter != null && (event.hasStructuralChanges(ChipChangeEvent.FILTERED)
+                || event.hasStructuralChanges(ChipChangeEvent.ORIGINAL))) {
+            mFilter.invalidate();
+        }
+        if (!event.hasChanges(ChipChangeEvent.FILTERED)) {
+            // Chips were added to, or removed from, only the original chips,
+            // like appended ones, so apply the current filter to them
+            if (mFilter != null && event.hasStructuralChanges(ChipChangeEvent.ORIGINAL)) {
+                mFilter.refilter();
+            }
+            return;
+        }
+        if (mFilter != null && event.isReset(ChipChangeEvent.FILTERED)
+                && event.hasStructuralChanges(ChipChangeEvent.ORIGINAL)) {
+            // The filtered chips were replaced along with the original chips, like
+            // filter results that came after chips were appended, so they may not
+            // match the current filter anymore
+            mFilter.refilter();
+        }
+
+        final List<Chip> chips = mDataSource.getSnapshot().getFilteredChips();
+        if (chips instanceof PagedChipList || mChips instanceof PagedChipList) {
+            // Diffing paged chips would load every page, so only bind
+            // the loaded chips, or all of them if the list was replaced
+            if (chips != mChips || event.isReset(ChipChangeEvent.FILTERED)) {
+                swapChips(chips);
+            } else {
+                Utils.dispatchChanges(event, ChipChangeEvent.FILTERED, this);
+            }
+        } else if (mDiffPending || event.isReset(ChipChangeEvent.FILTERED)) {
+            // The displayed chips only match the data source filtered chips,
+            // as they were before this event, if no diff is pending
+            diffChips();
+        } else {
+            mChipsGeneration++;
+            mChips = mDataSource.getSnapshot().getFilteredChips();
+            Utils.dispatchChanges(event, ChipChangeEvent.FILTERED, this);
+        }
+    }
+
+    /**
+     * Compares the displayed chips to the data source filtered chips on a
+     * background thread, and dispatches the diff if it's still the latest.
+     * If either list is empty, or too large to diff quickly, this just swaps
+     * the chips instead, since a diff wouldn't save rebinding many views.
+     */
+    private void diffChips() {
+        final List<Chip> oldChips = mChips;
+        final List<Chip> newChips = mDataSource.getSnapshot().getFilteredChips();
+        if (oldChips.isEmpty() || newChips.isEmpty()
+                || oldChips.size() > MAX_DIFF_SIZE || newChips.size() > MAX_DIFF_SIZE) {
+            swapChips(newChips);
+            return;
+        }
+        final int generation = ++mChipsGeneration;
+        mDiffPending = true;
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                        new ChipDiffCallback(oldChips, newChips), false);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Drop the diff if the displayed chips were replaced meanwhile
+                        if (generation == mChipsGeneration) {
+                            mDiffPending = false;
+                            mChips = newChips;
+                            diff.dispatchUpdatesTo(FilterableChipsAdapter.this);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Filters the filterable chips using the given constraint on a background
+     * thread, cancelling any filtering that's still in progress.
+     *
+     * @param constraint Filter pattern
+     * @param listener Called once the latest filtering is published
+     */
+    void filterChips(CharSequence constraint, Filter.FilterListener listener) {
+        getFilter();
+        mFilter.filterChips(constraint, listener);
+    }
+
+    /**
+     * Displays the filtered chips of the given data source, which already
+     * has the observers of the old one.
+     *
+     * @param dataSource {@link ChipDataSource}
+     */
+    void changeChipDataSource(ChipDataSource dataSource) {
+        mDataSource.removeChangedObserver(this);
+        mDataSource = dataSource;
+        if (mFilter != null) {
+            mFilter.invalidate();
+        }
+        swapChips(mDataSource.getSnapshot().getFilteredChips());
+    }
+
+    /**
+     * Displays the given filtered chips, dropping any diff that's still being
+     * calculated. A filter pattern changes most of the chips, so this doesn't
+     * bother calculating a diff.
+     *
+     * @param chips Unmodifiable list of {@link Chip}
+     */
+    private void swapChips(List<Chip> chips) {
+        mChipsGeneration++;
+        mDiffPending = false;
+        mChips = chips;
         notifyDataSetChanged();
     }
 
@@ -125,8 +298,12 @@ class FilterableChipsAdapter
 
             final int index = getAdapterPosition();
             if (index >= 0 && index < getItemCount()) {
-                // Take the chip from the filtered chip list
-                final Chip chip = mDataSource.getFilteredChip(getAdapterPosition());
+                // The displayed chips may not be updated yet, so make sure
+                // the chip can still be taken from the filtered chip list
+                final Chip chip = mChips.get(index);
+                if (chip == null || !mDataSource.existsInFiltered(chip)) {
+                    return;
+                }
                 mDataSource.takeChip(chip);
 
                 // Trigger callback with the clicked chip
@@ -147,41 +324,224 @@ class FilterableChipsAdapter
     /**
      * Concrete implementation of {@link Filter} to help us mFilter our list of filterable chips.
      *
-     * This works by cloning the list of filterable chips, so that the original filterable chips
-     * list is retained, and then inclusively filtering the data source filterable chips list.
+     * This works by inclusively filtering a snapshot of the original filterable chips into a
+     * new list on the filter's background thread, so that neither the original filterable
+     * chips list nor the one being displayed are touched while filtering. Every filtering is
+     * described by a {@link Request}, which carries that snapshot and everything else the
+     * background thread needs, so it never reads anything the main thread may change. The
+     * filter only turns its constraint into a string, so the latest request is kept in a
+     * volatile field instead, and the background thread filters whichever is the latest.
      *
-     * Once the data source filterable chips list is filtered, the adapter will notify data
-     * set changes have happened.
+     * Once the new list is computed, it's published as the data source filtered chips list on
+     * the main thread, and the adapter will notify data set changes have happened. Results are
+     * dropped if a newer filtering was requested in the meantime, and filtering is restarted,
+     * with the same listener, if the data source changed while it was running.
      *
      * If the user removes the mFilter (removing all the typed characters), the original list
      * of filterable chips will be added back into the data source filterable chips.
+     *
+     * When the user types more characters onto the last pattern, the chips that match
+     * the new pattern are a subset of the ones already filtered. In that case, only the
+     * last results are narrowed down instead of scanning all the original chips, so the
+     * cost of a keystroke depends on the number of matches. Any change to the data source,
+     * or any other kind of edit to the pattern, falls back to scanning the original chips.
+     *
+     * Paged chips are never narrowed down or scanned, since that would load every page;
+     * the {@link PagedChipDataSource} finds them instead.
+     *
+     * When chips are only added to, or removed from, the original chips, like when they're
+     * appended in batches, or the filtered chips were reset along with them, the last
+     * constraint is filtered again, so the displayed chips keep matching it.
      */
     private final class ChipFilter extends Filter {
+        /* Incremented for every filtering requested, to cancel older ones */
+        private volatile int mGeneration;
+        /* Latest filtering requested, read by the background thread */
+        private volatile Request mRequest;
+        /* Incremented for every change to the data source */
+        private int mVersion;
+        /* Snapshot of the original chips for the current version */
+        private List<Chip> mOriginal;
+        /* Last published results, or null if they're out of date */
+        private Results mLast;
+        /* Last constraint requested, or null if there's none yet */
+        private CharSequence mConstraint;
+        /* Listener of the latest filtering, until it's published */
+        private FilterListener mListener;
+
+
+        /**
+         * Requests filtering with the given constraint, cancelling any older
+         * filtering. This must be called on the main thread.
+         *
+         * @param constraint Filter pattern
+         * @param listener Called once this filtering is published, if it's the latest
+         */
+        void filterChips(CharSequence constraint, FilterListener listener) {
+            if (mOriginal == null) {
+                mOriginal = mDataSource.getSnapshot().getOriginalChips();
+            }
+            mConstraint = (constraint == null) ? "" : constraint.toString();
+            mListener = listener;
+            mRequest = new Request(mConstraint, ++mGeneration, mVersion,
+                    mDataSource, mOriginal, mLast, listener);
+            filter(mConstraint);
+        }
+
+        /**
+         * Filters the original chips again with the last constraint, if there's
+         * one, keeping the listener of a filtering that's still in progress.
+         * This must be called on the main thread.
+         */
+        void refilter() {
+            if (mConstraint != null) {
+                filterChips(mConstraint, mListener);
+            }
+        }
+
+        /**
+         * Forgets the original chips and the last results because the data
+         * source has changed. This must be called on the main thread.
+         */
+        void invalidate() {
+            mVersion++;
+            mOriginal = null;
+            mLast = null;
+        }
+
         @Override
         protected FilterResults performFiltering(CharSequence constraint) {
-            FilterResults results = new FilterResults();
+            // The constraint is only the text, so filter the latest request,
+            // which may already be newer than the constraint
+            final FilterResults results = new FilterResults();
+            final Request request = mRequest;
+            if (request == null || request.generation != mGeneration) {
+                return results;
+            }
 
-            mDataSource.getFilteredChips().clear();
-            if (TextUtils.isEmpty(constraint)) {
-                mDataSource.getFilteredChips().addAll(mDataSource.getOriginalChips());
+            final int generation = request.generation;
+            final String pattern;
+            final List<Chip> filtered;
+            if (TextUtils.isEmpty(request.text)) {
+                pattern = "";
+                filtered = request.original;
             } else {
-                final String pattern = constraint.toString().toLowerCase().trim();
-                for (Chip chip : mDataSource.getOriginalChips()) {
-                    if (chip.getTitle().toLowerCase().contains(pattern)
-                            || (chip.getSubtitle() != null && chip.getSubtitle().toLowerCase().replaceAll("\\s", "").contains(pattern))) {
-                        mDataSource.getFilteredChips().add(chip);
-                    }
+                // Chips carry their normalized title and subtitle, so matching
+                // them doesn't need to allocate anything per chip
+                pattern = request.text.toString().toLowerCase().trim();
+                final Results last = request.last;
+                if (last != null && pattern.startsWith(last.pattern)
+                        && !(last.chips instanceof PagedChipList)) {
+                    // Every chip matching the new pattern also matched the last
+                    // one, so we only need to narrow down the last results
+                    filtered = match(last.chips, pattern, generation);
+                } else if (request.dataSource instanceof SearchableChipDataSource) {
+                    // Let the data source find the candidates using its own index
+                    final List<Chip> found = ((SearchableChipDataSource)request.dataSource)
+                            .findChips(pattern);
+                    filtered = (found != null) ? found
+                            : match(request.original, pattern, generation);
+                } else {
+                    filtered = match(request.original, pattern, generation);
                 }
             }
 
-            results.values = mDataSource.getFilteredChips();
-            results.count = mDataSource.getFilteredChips().size();
+            if (filtered != null) {
+                results.values = new Results(request, pattern, filtered);
+                results.count = filtered.size();
+            }
             return results;
         }
 
         @Override
         protected void publishResults(CharSequence constraint, FilterResults results) {
-            notifyDataSetChanged();
+            final Results filtered = (Results)results.values;
+            if (filtered == null || filtered.generation != mGeneration) {
+                // Cancelled, or a newer filtering is on its way
+                return;
+            }
+            if (filtered.version != mVersion) {
+                // The data source changed while filtering, so start over
+                filterChips(filtered.text, filtered.listener);
+                return;
+            }
+
+            mLast = filtered;
+            mListener = null;
+            mDataSource.setFilteredChips(filtered.chips);
+            swapChips(filtered.chips);
+            if (filtered.listener != null) {
+                filtered.listener.onFilterComplete(filtered.chips.size());
+            }
+        }
+
+        /**
+         * Finds the given chips matching the given pattern, giving up if a
+         * newer filtering is requested in the meantime.
+         *
+         * @return Unmodifiable list of {@link Chip}, or null if cancelled
+         */
+        private List<Chip> match(List<Chip> chips, String pattern, int generation) {
+            final List<Chip> matches = new ArrayList<>();
+            for (int i = 0, size = chips.size(); i < size; i++) {
+                if ((i & 0xFF) == 0 && generation != mGeneration) {
+                    return null;
+                }
+                final Chip chip = chips.get(i);
+                if (chip.matchesFilter(pattern)) {
+                    matches.add(chip);
+                }
+            }
+            return Collections.unmodifiableList(matches);
+        }
+    }
+
+
+    /**
+     * Immutable request for a single filtering, made on the main thread and
+     * read by the filter's background thread.
+     */
+    private static final class Request {
+        final CharSequence text;
+        final int generation;
+        final int version;
+        final ChipDataSource dataSource;
+        final List<Chip> original;
+        final Results last;
+        final Filter.FilterListener listener;
+
+        Request(CharSequence text, int generation, int version, ChipDataSource dataSource,
+                List<Chip> original, Results last, Filter.FilterListener listener) {
+            this.text = text;
+            this.generation = generation;
+            this.version = version;
+            this.dataSource = dataSource;
+            this.original = original;
+            this.last = last;
+            this.listener = listener;
+        }
+    }
+
+
+    /**
+     * Immutable results of a single filtering.
+     */
+    private static final class Results {
+        /* Copied from the request, which would keep the last results alive */
+        final CharSequence text;
+        final int generation;
+        final int version;
+        final Filter.FilterListener listener;
+        final String pattern;
+        final List<Chip> chips;
+
+        Results(Request request, String pattern, List<Chip> chips) {
+            this.text = request.text;
+            this.generation = request.generation;
+            this.version = request.version;
+            this.listener = request.listener;
+            this.pattern = pattern;
+            this.chips = chips;
         }
     }
 }
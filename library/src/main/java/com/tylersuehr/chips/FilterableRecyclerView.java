@@ -10,7 +10,6 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.animation.AlphaAnimation;
 import android.widget.Filter;
-import android.widget.Filterable;
 
 /**
  * Copyright © 2017 Tyler Suehr
@@ -29,7 +28,7 @@ class FilterableRecyclerView extends RecyclerView implements ChipComponent {
     /* Used to find its location in window */
     private ChipsInputLayout mChipsInput;
     /* Used to trigger filtering and receive callbacks to show or hide this */
-    private Filter mFilter;
+    private FilterableChipsAdapter mAdapter;
 
 
     FilterableRecyclerView(Context c) {
@@ -48,10 +47,9 @@ class FilterableRecyclerView extends RecyclerView implements ChipComponent {
         }
     }
 
-    <T extends RecyclerView.Adapter & Filterable>
-    void setup(T adapter, ChipsInputLayout chipsInputLayout) {
+    void setup(FilterableChipsAdapter adapter, ChipsInputLayout chipsInputLayout) {
         setAdapter(adapter);
-        mFilter = adapter.getFilter();
+        mAdapter = adapter;
         mChipsInput = chipsInputLayout;
     }
 
@@ -63,7 +61,7 @@ class FilterableRecyclerView extends RecyclerView implements ChipComponent {
      */
     void filterChips(CharSequence filter) {
         if (filter != null) {
-            mFilter.filter(filter, new Filter.FilterListener() {
+            mAdapter.filterChips(filter, new Filter.FilterListener() {
                 @Override
                 public void onFilterComplete(int count) {
                     // Show if, and only if, there are results
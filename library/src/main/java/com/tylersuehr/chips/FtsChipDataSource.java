@@ -0,0 +1,527 @@
+package com.tylersuehr.chips;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Copyright © 2017 Tyler Suehr
+ *
+ * Subclass of {@link PagedChipDataSource} that stores the filterable chips in a local
+ * SQLite database, with a full-text search (FTS4) index over their titles and subtitles,
+ * instead of keeping them in memory.
+ *
+ * Filtering runs a prefix MATCH query against the index, so each word of the filter
+ * pattern matches the start of any word of a chip title or subtitle; "jo sm" matches
+ * "John Smith". The matching chips are loaded a page at a time, sorted by title like
+ * the other data sources, so memory use and filter latency stay flat as the directory
+ * grows. Since the database is kept on disk, the chips don't have to be set again every
+ * time the app starts; just call {@link #refresh()}.
+ *
+ * The filterable chips of this are loaded copies of the chips that were stored, keeping
+ * their IDs, titles, subtitles, and avatar URIs; tags and avatar drawables aren't stored.
+ * Chips are matched by their IDs, so they should all have unique IDs, which must be
+ * strings, integers or longs. A chip whose ID is already stored isn't stored again.
+ *
+ * Chips are sorted by keys stored for the default locale; if the default locale has
+ * changed since, the keys are made again before the chips are counted.
+ *
+ * Note: writing many chips takes a while, so prefer setting them on a background thread;
+ * the filterable chips are then refreshed on the main thread. Call {@link #close()} once
+ * this isn't used anymore.
+ *
+ * @author Tyler Suehr
+ * @version 1.0
+ */
+public class FtsChipDataSource extends PagedChipDataSource {
+    private static final int DATABASE_VERSION = 2;
+    /* Types of chip IDs, stored along with them; chip_id has no type, so
+       integers and strings are stored and compared as they are */
+    private static final int ID_STRING = 0;
+    private static final int ID_INTEGER = 1;
+    private static final int ID_LONG = 2;
+    private static final String CREATE_CHIPS = "CREATE TABLE chips ("
+            + "_id INTEGER PRIMARY KEY, chip_id, id_type INTEGER NOT NULL, "
+            + "title TEXT NOT NULL, subtitle TEXT, avatar_uri TEXT, sort_key BLOB NOT NULL)";
+    private static final String CREATE_CHIPS_INDEX = "CREATE INDEX chips_sort "
+            + "ON chips (sort_key, _id)";
+    private static final String CREATE_CHIPS_ID_INDEX = "CREATE UNIQUE INDEX chips_id "
+            + "ON chips (chip_id)";
+    private static final String CREATE_SORT_LOCALE = "CREATE TABLE sort_locale ("
+            + "locale TEXT NOT NULL)";
+    private static final String CREATE_CHIPS_FTS = "CREATE VIRTUAL TABLE chips_fts "
+            + "USING fts4(title, subtitle)";
+    private static final String INSERT_CHIP = "INSERT OR IGNORE INTO chips "
+            + "(chip_id, id_type, title, subtitle, avatar_uri, sort_key) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_SORT_KEY = "UPDATE chips SET sort_key = ? WHERE _id = ?";
+    private static final String INSERT_CHIP_FTS = "INSERT INTO chips_fts "
+            + "(docid, title, subtitle) VALUES (?, ?, ?)";
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mRefresh = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+    private final DatabaseHelper mHelper;
+    /* Locale the stored sort keys were made for, or null until it's read */
+    private volatile String mSortLocale;
+
+
+    /**
+     * Constructs with the database of the given name, creating it if needed.
+     *
+     * @param context {@link Context}
+     * @param name Name of the database file, or null for an in-memory database
+     */
+    public FtsChipDataSource(Context context, String name) {
+        this(context, name, 50, 8);
+    }
+
+    /**
+     * Constructs with the database of the given name, creating it if needed,
+     * and the given size of pages, and number of pages kept in memory.
+     *
+     * @param context {@link Context}
+     * @param name Name of the database file, or null for an in-memory database
+     * @param pageSize Number of chips in a page
+     * @param maxPages Number of pages kept in memory, at least 3
+     */
+    public FtsChipDataSource(Context context, String name, int pageSize, int maxPages) {
+        super(pageSize, maxPages);
+        if (context == null) {
+            throw new NullPointerException("Context cannot be null!");
+        }
+        mHelper = new DatabaseHelper(context, name);
+    }
+
+    /**
+     * Replaces all the stored filterable chips with the given chips, then
+     * refreshes the filterable chips.
+     */
+    @Override
+    public void setFilterableChips(List<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.execSQL("DELETE FROM chips");
+            db.execSQL("DELETE FROM chips_fts");
+            insertChips(db, chips);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        scheduleRefresh();
+    }
+
+    /**
+     * Stores the given chip along with the other filterable chips, then
+     * refreshes the filterable chips.
+     */
+    @Override
+    public void addFilteredChip(Chip chip) {
+        if (chip == null) {
+            throw new NullPointerException("Chip cannot be null!");
+        }
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            insertChips(db, Collections.singletonList(chip));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        scheduleRefresh();
+    }
+
+    /**
+     * Stores the given chips along with the other filterable chips, then
+     * refreshes the filterable chips. Chips can be stored in batches from a
+     * background thread, each batch becoming searchable once it's stored.
+     * Chips whose IDs are already stored are skipped.
+     */
+    @Override
+    public void appendFilterableChips(Collection<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            insertChips(db, chips);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        scheduleRefresh();
+    }
+
+    /**
+     * Deletes all the stored filterable chips, then refreshes the
+     * filterable chips.
+     */
+    @Override
+    public void clearFilteredChips() {
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.execSQL("DELETE FROM chips");
+            db.execSQL("DELETE FROM chips_fts");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        scheduleRefresh();
+    }
+
+    /**
+     * Closes the database storing the filterable chips.
+     */
+    public void close() {
+        mHelper.close();
+    }
+
+    @Override
+    protected int countChips(String pattern, List<Chip> excluded) {
+        // Every list of chips is counted before it's loaded
+        updateSortKeys();
+        final String where = buildWhere(pattern, excluded);
+        if (where == null) {
+            return 0;
+        }
+        final Cursor cursor = mHelper.getReadableDatabase().rawQuery(
+                "SELECT COUNT(*) FROM chips WHERE " + where, matchArgs(pattern));
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected List<Chip> loadChips(String pattern, List<Chip> excluded, int start, int count) {
+        final String where = buildWhere(pattern, excluded);
+        if (where == null) {
+            return Collections.emptyList();
+        }
+        final Cursor cursor = mHelper.getReadableDatabase().rawQuery(
+                "SELECT _id, chip_id, id_type, title, subtitle, avatar_uri FROM chips WHERE " + where
+                        + " ORDER BY sort_key, _id LIMIT " + count + " OFFSET " + start,
+                matchArgs(pattern));
+        try {
+            final List<Chip> chips = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                chips.add(new StoredChip(cursor.getLong(0), readId(cursor, 1, cursor.getInt(2)),
+                        cursor.getString(3), cursor.getString(4), cursor.getString(5)));
+            }
+            return chips;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void scheduleRefresh() {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            refresh();
+        } else {
+            mMainHandler.post(mRefresh);
+        }
+    }
+
+    /**
+     * Makes the stored sort keys again if they were made for a different
+     * locale than the default one.
+     */
+    private void updateSortKeys() {
+        if (Locale.getDefault().toString().equals(mSortLocale)) {
+            return;
+        }
+        final SQLiteDatabase db = mHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            updateSortKeys(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Makes the stored sort keys again if they were made for a different
+     * locale than the default one. This must be called inside of a transaction.
+     *
+     * @return {@link Collator} for the default locale
+     */
+    private Collator updateSortKeys(SQLiteDatabase db) {
+        final Locale locale = Locale.getDefault();
+        final Collator collator = Collator.getInstance(locale);
+        final Cursor stored = db.rawQuery("SELECT locale FROM sort_locale", null);
+        try {
+            if (stored.moveToFirst() && stored.getString(0).equals(locale.toString())) {
+                mSortLocale = locale.toString();
+                return collator;
+            }
+        } finally {
+            stored.close();
+        }
+
+        final SQLiteStatement update = db.compileStatement(UPDATE_SORT_KEY);
+        final Cursor cursor = db.rawQuery("SELECT _id, title FROM chips", null);
+        try {
+            while (cursor.moveToNext()) {
+                update.bindBlob(1, collator.getCollationKey(cursor.getString(1)).toByteArray());
+                update.bindLong(2, cursor.getLong(0));
+                update.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            update.close();
+        }
+        db.execSQL("DELETE FROM sort_locale");
+        db.execSQL("INSERT INTO sort_locale (locale) VALUES (?)", new Object[] { locale.toString() });
+        mSortLocale = locale.toString();
+        return collator;
+    }
+
+    /**
+     * Inserts the given chips into the chips table and its index, skipping
+     * chips whose IDs are already stored. This must be called inside of a
+     * transaction.
+     */
+    private void insertChips(SQLiteDatabase db, Collection<? extends Chip> chips) {
+        final Collator collator = updateSortKeys(db);
+        final SQLiteStatement insertChip = db.compileStatement(INSERT_CHIP);
+        final SQLiteStatement insertFts = db.compileStatement(INSERT_CHIP_FTS);
+        try {
+            for (Chip chip : chips) {
+                if (chip == null) {
+                    throw new NullPointerException("Chip cannot be null!");
+                }
+                final Object id = chip.getId();
+                final String subtitle = chip.getSubtitle();
+                final Uri avatarUri = chip.getAvatarUri();
+                bindId(insertChip, 1, 2, id);
+                insertChip.bindString(3, chip.getTitle());
+                bindString(insertChip, 4, subtitle);
+                bindString(insertChip, 5, (avatarUri == null) ? null : avatarUri.toString());
+                insertChip.bindBlob(6, collator.getCollationKey(chip.getTitle()).toByteArray());
+                final long rowId = insertChip.executeInsert();
+                if (rowId == -1) {
+                    // A chip with the same ID is already stored
+                    continue;
+                }
+
+                // The index is lower-cased here, since its tokenizer only
+                // folds the case of ASCII letters
+                insertFts.bindLong(1, rowId);
+                insertFts.bindString(2, chip.getTitle().toLowerCase());
+                bindString(insertFts, 3, (subtitle == null) ? null : subtitle.toLowerCase());
+                insertFts.executeInsert();
+            }
+        } finally {
+            insertChip.close();
+            insertFts.close();
+        }
+    }
+
+    /**
+     * Binds the given chip ID, and its type, keeping integers as integers
+     * so that they're loaded back as the same type.
+     */
+    private static void bindId(SQLiteStatement statement, int index, int typeIndex, Object id) {
+        if (id == null || id instanceof String) {
+            bindString(statement, index, (String)id);
+            statement.bindLong(typeIndex, ID_STRING);
+        } else if (id instanceof Integer) {
+            statement.bindLong(index, (Integer)id);
+            statement.bindLong(typeIndex, ID_INTEGER);
+        } else if (id instanceof Long) {
+            statement.bindLong(index, (Long)id);
+            statement.bindLong(typeIndex, ID_LONG);
+        } else {
+            throw new IllegalArgumentException("Chip IDs must be strings, integers or longs!");
+        }
+    }
+
+    private static Object readId(Cursor cursor, int index, int type) {
+        if (cursor.isNull(index)) {
+            return null;
+        }
+        switch (type) {
+            case ID_INTEGER:
+                return cursor.getInt(index);
+            case ID_LONG:
+                return cursor.getLong(index);
+            default:
+                return cursor.getString(index);
+        }
+    }
+
+    private static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Builds the condition on the chips table for the chips matching the given
+     * pattern, leaving out the given chips. The excluded chips are written as
+     * literals, so any number of them can be left out.
+     *
+     * @return Condition, or null if nothing can match
+     */
+    private static String buildWhere(String pattern, List<Chip> excluded) {
+        final StringBuilder where = new StringBuilder("1");
+        if (pattern.length() > 0) {
+            if (buildMatchQuery(pattern) == null) {
+                return null;
+            }
+            where.append(" AND _id IN (SELECT docid FROM chips_fts WHERE chips_fts MATCH ?)");
+        }
+
+        final StringBuilder rowIds = new StringBuilder();
+        final StringBuilder chipIds = new StringBuilder();
+        for (Chip chip : excluded) {
+            if (chip.getId() instanceof Integer || chip.getId() instanceof Long) {
+                appendSeparator(chipIds);
+                chipIds.append(chip.getId());
+            } else if (chip.getId() != null) {
+                appendSeparator(chipIds);
+                chipIds.append('\'').append(chip.getId().toString().replace("'", "''"))
+                        .append('\'');
+            } else if (chip instanceof StoredChip) {
+                appendSeparator(rowIds);
+                rowIds.append(((StoredChip)chip).mRowId);
+            }
+        }
+        if (chipIds.length() > 0) {
+            where.append(" AND (chip_id IS NULL OR chip_id NOT IN (").append(chipIds).append("))");
+        }
+        if (rowIds.length() > 0) {
+            where.append(" AND _id NOT IN (").append(rowIds).append(')');
+        }
+        return where.toString();
+    }
+
+    private static void appendSeparator(StringBuilder builder) {
+        if (builder.length() > 0) {
+            builder.append(',');
+        }
+    }
+
+    private static String[] matchArgs(String pattern) {
+        return (pattern.length() > 0) ? new String[] { buildMatchQuery(pattern) } : null;
+    }
+
+    /**
+     * Builds a MATCH query matching every word of the given pattern as the
+     * prefix of a word, quoting each word so it can't be read as an operator.
+     *
+     * @return MATCH query, or null if the pattern has no words
+     */
+    private static String buildMatchQuery(String pattern) {
+        final StringBuilder query = new StringBuilder();
+        for (String word : pattern.split("[^\\p{L}\\p{N}]+")) {
+            if (word.length() > 0) {
+                if (query.length() > 0) {
+                    query.append(' ');
+                }
+                query.append('"').append(word).append("\"*");
+            }
+        }
+        return (query.length() > 0) ? query.toString() : null;
+    }
+
+
+    /**
+     * Nested inner-subclass of {@link SQLiteOpenHelper} that creates the chips
+     * table and its full-text search index.
+     */
+    private static final class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL(CREATE_CHIPS);
+            db.execSQL(CREATE_CHIPS_INDEX);
+            db.execSQL(CREATE_CHIPS_ID_INDEX);
+            db.execSQL(CREATE_CHIPS_FTS);
+            db.execSQL(CREATE_SORT_LOCALE);
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // Chips stored before version 2 lost the types of their IDs,
+            // so they have to be set again
+            db.execSQL("DROP TABLE IF EXISTS chips");
+            db.execSQL("DROP TABLE IF EXISTS chips_fts");
+            db.execSQL("DROP TABLE IF EXISTS sort_locale");
+            onCreate(db);
+        }
+    }
+
+
+    /**
+     * Nested inner-subclass of {@link Chip} loaded from a row of the chips table.
+     */
+    private static final class StoredChip extends Chip {
+        private final long mRowId;
+        private final Object mId;
+        private final String mTitle;
+        private final String mSubtitle;
+        private final String mAvatarUri;
+
+
+        StoredChip(long rowId, Object id, String title, String subtitle, String avatarUri) {
+            mRowId = rowId;
+            mId = id;
+            mTitle = title;
+            mSubtitle = subtitle;
+            mAvatarUri = avatarUri;
+        }
+
+        @Override
+        public Object getId() {
+            return mId;
+        }
+
+        @Override
+        public String getTitle() {
+            return mTitle;
+        }
+
+        @Override
+        public String getSubtitle() {
+            return mSubtitle;
+        }
+
+        @Override
+        public Uri getAvatarUri() {
+            return (mAvatarUri == null) ? null : Uri.parse(mAvatarUri);
+        }
+
+        @Override
+        public Drawable getAvatarDrawable() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.tylersuehr.chips;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.text.TextPaint;
+import android.util.LruCache;
+
+/**
+ * Copyright © 2017 Tyler Suehr
+ *
+ * Single bitmap holding the glyphs of letter tiles, the uppercase letters A to Z and the
+ * digits 0 to 9, pre-rendered once for a typeface and text size.
+ *
+ * Letter tiles copy their glyph out of an atlas instead of measuring and rasterizing the
+ * glyph's text every time they're drawn, which is what dominates drawing a tile on slow
+ * devices. Glyphs are placed exactly where the text would have been drawn, centered in
+ * the tile. Any other glyph isn't in the atlas, and must be drawn as text instead.
+ *
+ * The atlas is an alpha-only bitmap, so glyphs are drawn in the color of the paint used
+ * to draw them. Atlases are immutable, and shared through a small cache, so they can be
+ * used on any thread.
+ *
+ * @author Tyler Suehr
+ * @version 1.0
+ */
+final class GlyphAtlas {
+    private static final String GLYPHS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+    private static final int COLUMNS = 6;
+    /* Space around each glyph, so anti-aliased edges aren't cut off */
+    private static final int PADDING = 1;
+
+    /* Most recently used atlases; only a few tile sizes are used at once */
+    private static final LruCache<Key, GlyphAtlas> sAtlases = new LruCache<>(4);
+
+    private final Typeface mTypeface;
+    private final int mTextSize;
+    private final Bitmap mBitmap;
+    /* Area of each glyph in the atlas */
+    private final Rect[] mSources = new Rect[GLYPHS.length()];
+    /* Offset of each glyph's area from the center of the tile */
+    private final float[] mLefts = new float[GLYPHS.length()];
+    private final float[] mTops = new float[GLYPHS.length()];
+
+
+    private GlyphAtlas(Typeface typeface, int textSize) {
+        mTypeface = typeface;
+        mTextSize = textSize;
+
+        final TextPaint paint = new TextPaint();
+        paint.setColor(Color.WHITE);
+        paint.setAntiAlias(true);
+        paint.setTypeface(typeface);
+        paint.setTextSize(textSize);
+
+        // Measure every glyph to size the cells of the atlas
+        final Rect[] bounds = new Rect[GLYPHS.length()];
+        final float[] advances = new float[GLYPHS.length()];
+        final char[] glyph = new char[1];
+        int cellSize = 1;
+        for (int i = 0; i < bounds.length; i++) {
+            glyph[0] = GLYPHS.charAt(i);
+            bounds[i] = new Rect();
+            paint.getTextBounds(glyph, 0, 1, bounds[i]);
+            advances[i] = paint.measureText(glyph, 0, 1);
+            cellSize = Math.max(cellSize, Math.max(bounds[i].width(), bounds[i].height()));
+        }
+        cellSize += 2 * PADDING;
+
+        // Draw every glyph into its own cell, with its bounds at the top left
+        final int rows = (GLYPHS.length() + COLUMNS - 1) / COLUMNS;
+        mBitmap = Bitmap.createBitmap(COLUMNS * cellSize, rows * cellSize, Bitmap.Config.ALPHA_8);
+        final Canvas canvas = new Canvas(mBitmap);
+        for (int i = 0; i < bounds.length; i++) {
+            final Rect b = bounds[i];
+            final int x = (i % COLUMNS) * cellSize;
+            final int y = (i / COLUMNS) * cellSize;
+            glyph[0] = GLYPHS.charAt(i);
+            canvas.drawText(glyph, 0, 1, x + PADDING - b.left, y + PADDING - b.top, paint);
+            mSources[i] = new Rect(x, y, x + b.width() + 2 * PADDING, y + b.height() + 2 * PADDING);
+
+            // Tiles center the glyph's advance horizontally, and put its baseline
+            // half the glyph's height below the center
+            mLefts[i] = -advances[i] / 2f + b.left - PADDING;
+            mTops[i] = b.height() / 2f + b.top - PADDING;
+        }
+    }
+
+    /**
+     * Gets the atlas for the given typeface and text size, creating it if
+     * it isn't cached.
+     *
+     * @param typeface {@link Typeface} of the glyphs
+     * @param textSize Size of the glyphs, in pixels
+     * @return {@link GlyphAtlas}
+     */
+    static GlyphAtlas obtain(Typeface typeface, int textSize) {
+        final Key key = new Key(typeface, textSize);
+        GlyphAtlas atlas = sAtlases.get(key);
+        if (atlas == null) {
+            atlas = new GlyphAtlas(typeface, textSize);
+            sAtlases.put(key, atlas);
+        }
+        return atlas;
+    }
+
+    /**
+     * Checks if the given glyph is in every atlas.
+     */
+    static boolean contains(char glyph) {
+        return GLYPHS.indexOf(glyph) >= 0;
+    }
+
+    /**
+     * Checks if this atlas has the given typeface and text size, so it
+     * doesn't need to be obtained again.
+     */
+    boolean matches(Typeface typeface, int textSize) {
+        return mTextSize == textSize
+                && (mTypeface == null ? typeface == null : mTypeface.equals(typeface));
+    }
+
+    /**
+     * Draws the given glyph centered on the given point, if it's in this atlas.
+     *
+     * @param canvas {@link Canvas} to draw on
+     * @param glyph Glyph to draw
+     * @param cx Center of the tile
+     * @param cy Center of the tile
+     * @param paint {@link Paint} giving the color of the glyph
+     * @param destination Reused to place the glyph
+     * @return False if the glyph isn't in this atlas
+     */
+    boolean draw(Canvas canvas, char glyph, float cx, float cy, Paint paint, RectF destination) {
+        final int index = GLYPHS.indexOf(glyph);
+        if (index < 0) {
+            return false;
+        }
+        final Rect source = mSources[index];
+        final float left = cx + mLefts[index];
+        final float top = cy + mTops[index];
+        destination.set(left, top, left + source.width(), top + source.height());
+        canvas.drawBitmap(mBitmap, source, destination, paint);
+        return true;
+    }
+
+
+    /**
+     * Immutable key of an atlas.
+     */
+    private static final class Key {
+        final Typeface typeface;
+        final int textSize;
+
+        Key(Typeface typeface, int textSize) {
+            this.typeface = typeface;
+            this.textSize = textSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) { return true; }
+            if (!(o instanceof Key)) { return false; }
+            final Key key = (Key)o;
+            return textSize == key.textSize
+                    && (typeface == null ? key.typeface == null : typeface.equals(key.typeface));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (typeface != null ? typeface.hashCode() : 0) + textSize;
+        }
+    }
+}
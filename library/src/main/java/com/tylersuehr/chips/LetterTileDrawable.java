@@ -0,0 +1,154 @@
+package com.tylersuehr.chips;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorFilter;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.text.TextPaint;
+
+/**
+ * Copyright © 2017 Tyler Suehr
+ *
+ * Subclass of {@link Drawable} that draws a circular letter tile, like the ones made by
+ * {@link LetterTileProvider}, straight onto the canvas of the view displaying it.
+ *
+ * Unlike a tile bitmap, this doesn't rasterize anything ahead of time, so it costs a few
+ * fields instead of a full-size bitmap, and scales to any size without losing quality.
+ * A view can keep displaying the same drawable for different chips, by updating it with
+ * {@link LetterTileProvider#updateLetterTileDrawable(LetterTileDrawable, String)}.
+ *
+ * Letters and digits are copied out of a {@link GlyphAtlas} for the size of this tile,
+ * instead of laying out and rasterizing their text every time this is drawn.
+ *
+ * @author Tyler Suehr
+ * @version 1.0
+ */
+public final class LetterTileDrawable extends Drawable {
+    private final Paint mFillPaint = new Paint();
+    private final TextPaint mTextPaint = new TextPaint();
+    private final Paint mIconPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    /* Reused to measure and place the glyph, and place the default icon */
+    private final Rect mTextBounds = new Rect();
+    private final RectF mGlyphBounds = new RectF();
+    private final Rect mIconBounds = new Rect();
+    private final char[] mGlyph = new char[1];
+    /* Atlas of the glyphs for the last size this was drawn at */
+    private GlyphAtlas mAtlas;
+
+    private int mColor;
+    private Bitmap mIcon;
+    private int mSize;
+    private int mAlpha = 255;
+
+
+    LetterTileDrawable() {
+        mFillPaint.setAntiAlias(true);
+        mTextPaint.setColor(Color.WHITE);
+        mTextPaint.setTextAlign(Paint.Align.CENTER);
+        mTextPaint.setAntiAlias(true);
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        final Rect bounds = getBounds();
+        final int size = Math.min(bounds.width(), bounds.height());
+        if (size <= 0) { return; }
+
+        final float cx = bounds.exactCenterX();
+        final float cy = bounds.exactCenterY();
+
+        // Draw the background circle
+        mFillPaint.setColor(mColor);
+        mFillPaint.setAlpha(Color.alpha(mColor) * mAlpha / 255);
+        canvas.drawCircle(cx, cy, size / 2f, mFillPaint);
+
+        if (mGlyph[0] != 0 && GlyphAtlas.contains(mGlyph[0])) {
+            // The text size is half the tile's height
+            final int textSize = size >> 1;
+            final Typeface typeface = mTextPaint.getTypeface();
+            if (mAtlas == null || !mAtlas.matches(typeface, textSize)) {
+                mAtlas = GlyphAtlas.obtain(typeface, textSize);
+            }
+            mAtlas.draw(canvas, mGlyph[0], cx, cy, mTextPaint, mGlyphBounds);
+        } else if (mGlyph[0] != 0) {
+            // Set the paint text size as half the tile's height, then center
+            // the glyph vertically using its measured bounds
+            mTextPaint.setTextSize(size >> 1);
+            mTextPaint.getTextBounds(mGlyph, 0, 1, mTextBounds);
+            canvas.drawText(mGlyph, 0, 1, cx,
+                    cy + (mTextBounds.bottom - mTextBounds.top) / 2f, mTextPaint);
+        } else if (mIcon != null) {
+            // The default icon takes up 3/4 of the tile, like 24dp in 32dp
+            final int inset = size >> 3;
+            final int left = Math.round(cx - size / 2f) + inset;
+            final int top = Math.round(cy - size / 2f) + inset;
+            mIconBounds.set(left, top, left + size - 2 * inset, top + size - 2 * inset);
+            canvas.drawBitmap(mIcon, null, mIconBounds, mIconPaint);
+        }
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        if (alpha == mAlpha) { return; }
+        mAlpha = alpha;
+        mTextPaint.setAlpha(alpha);
+        mIconPaint.setAlpha(alpha);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getAlpha() {
+        return mAlpha;
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter colorFilter) {
+        mFillPaint.setColorFilter(colorFilter);
+        mTextPaint.setColorFilter(colorFilter);
+        mIconPaint.setColorFilter(colorFilter);
+        invalidateSelf();
+    }
+
+    @Override
+    public int getOpacity() {
+        // The corners around the circle are transparent
+        return PixelFormat.TRANSLUCENT;
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mSize;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mSize;
+    }
+
+    int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Sets what this tile displays, and redraws it.
+     *
+     * @param glyph Upper-cased letter or digit, or 0 for the default icon
+     * @param color Background color
+     * @param typeface Typeface of the glyph
+     * @param icon Default icon
+     * @param size Intrinsic size of the tile
+     */
+    void setTile(char glyph, int color, Typeface typeface, Bitmap icon, int size) {
+        mGlyph[0] = glyph;
+        mColor = color;
+        mTextPaint.setTypeface(typeface);
+        mIcon = icon;
+        mSize = size;
+        invalidateSelf();
+    }
+}
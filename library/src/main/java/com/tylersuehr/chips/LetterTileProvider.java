@@ -1,6 +1,7 @@
 package com.tylersuehr.chips;
 import android.content.Context;
 import android.content.res.Resources;
+import android.os.AsyncTask;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
@@ -8,11 +9,19 @@ import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.Typeface;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
+import android.support.annotation.ColorInt;
 import android.support.v4.content.ContextCompat;
 import android.text.TextPaint;
+import android.util.LruCache;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Copyright © Tyler Suehr
@@ -21,9 +30,23 @@ import android.text.TextPaint;
  * a randomly, but repeatable, color. If no digit or letter in the English alphabet
  * is available, a default image is shown instead.
  *
- * This affords the above with two methods:
- * (1) {@link #getLetterTile(String)}, and
- * (2) {@link #getCircularLetterTile(String)}
+ * This affords the above with three methods:
+ * (1) {@link #getLetterTile(String)},
+ * (2) {@link #getCircularLetterTile(String)}, and
+ * (3) {@link #getLetterTileDrawable(String)}, which draws the circular tile straight
+ *     onto the canvas of a view, without any bitmap.
+ *
+ * Tiles only depend on their glyph, color, size, and typeface, and there are only a few
+ * of each, so the tiles drawn are kept in a bounded LRU cache. The cache is never handed
+ * out: every call returns a copy of the cached tile, which the caller owns and may draw
+ * on or recycle. Copying a tile is much cheaper than drawing it again.
+ *
+ * Tiles can be drawn on any thread. Each thread draws with its own canvas and paint, and
+ * the options are replaced, never changed in place, so tiles can be drawn ahead of time
+ * using {@link #prefetch(Collection)}.
+ *
+ * Letters and digits are copied out of a {@link GlyphAtlas}, rendered once for each
+ * typeface and size, instead of laying out and rasterizing their text for every tile.
  *
  * @author Tyler Suehr
  * @version 1.1
@@ -32,30 +55,36 @@ public class LetterTileProvider {
     private static volatile LetterTileProvider instance;
 
     /* Default colors for the letter tiles */
-    private static final String[] DEFAULT_COLORS = new String[] {
-            "#f16364", "#f58559", "#f9a43e", "#e4c62e",
-            "#67bf74", "#59a2be", "#2093cd", "#ad62a7"
+    private static final int[] DEFAULT_COLORS = new int[] {
+            0xfff16364, 0xfff58559, 0xfff9a43e, 0xffe4c62e,
+            0xff67bf74, 0xff59a2be, 0xff2093cd, 0xffad62a7
     };
 
-    private final TextPaint paint = new TextPaint();
-    private final Rect bounds = new Rect();
-    private final Canvas canvas = new Canvas();
-    private final char[] firstChar = new char[1];
+    /* Used to draw tiles ahead of time, off the main thread */
+    private static final Executor PREFETCH_EXECUTOR = AsyncTask.THREAD_POOL_EXECUTOR;
 
-    private String[] colors;
-    private Bitmap defaultBitmap;
-    private int tileSize;
+    /* Canvas and paint used to draw tiles, one per thread */
+    private final ThreadLocal<RenderContext> renderContexts = new ThreadLocal<RenderContext>() {
+        @Override
+        protected RenderContext initialValue() {
+            return new RenderContext();
+        }
+    };
+    private final TileCache tileCache = new TileCache();
+    /* Incremented for every prefetch, to cancel older ones */
+    private final AtomicInteger prefetchGeneration = new AtomicInteger();
+
+    private volatile Typeface typeface;
+    /* Parsed once, so picking a color is only an array lookup */
+    private volatile int[] colors;
+    private volatile Bitmap defaultBitmap;
+    private volatile int tileSize;
 
 
     /* Constructors with all defaults */
     private LetterTileProvider(Context c) {
-        // Setup the paint
-        this.paint.setTypeface(Typeface.create("sans-serif-light", Typeface.NORMAL));
-        this.paint.setColor(Color.WHITE);
-        this.paint.setTextAlign(Paint.Align.CENTER);
-        this.paint.setAntiAlias(true);
-
         // Setup the properties
+        this.typeface = Typeface.create("sans-serif-light", Typeface.NORMAL);
         this.colors = DEFAULT_COLORS;
         this.tileSize = c.getResources().getDimensionPixelSize(R.dimen.default_letter_tile_size);
         this.defaultBitmap = drawableToBitmap(ContextCompat
@@ -74,11 +103,38 @@ public class LetterTileProvider {
     }
 
     public void setTypeface(Typeface typeface) {
-        this.paint.setTypeface(typeface);
+        this.typeface = typeface;
     }
 
+    /**
+     * Sets the colors of the letter tiles, parsing them only once.
+     *
+     * @param colorHexes Colors, like "#f16364"
+     */
     public void setColors(String[] colorHexes) {
-        this.colors = colorHexes;
+        if (colorHexes == null) {
+            throw new NullPointerException("Colors cannot be null!");
+        }
+        final int[] colors = new int[colorHexes.length];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = Color.parseColor(colorHexes[i]);
+        }
+        setColors(colors);
+    }
+
+    /**
+     * Sets the colors of the letter tiles.
+     *
+     * @param colors Colors, like 0xfff16364
+     */
+    public void setColors(@ColorInt int[] colors) {
+        if (colors == null) {
+            throw new NullPointerException("Colors cannot be null!");
+        }
+        if (colors.length == 0) {
+            throw new IllegalArgumentException("At least one color is needed!");
+        }
+        this.colors = colors.clone();
     }
 
     public void setTileSize(int tileSize) {
@@ -87,6 +143,9 @@ public class LetterTileProvider {
 
     public void setDefaultIcon(Drawable dr) {
         this.defaultBitmap = drawableToBitmap(dr);
+
+        // Tiles with the old default icon can't be used anymore
+        this.tileCache.evictAll();
     }
 
     /**
@@ -94,10 +153,69 @@ public class LetterTileProvider {
      * a circular Bitmap.
      *
      * @param displayName Any string value
-     * @return {@link Bitmap}
+     * @return New {@link Bitmap} owned by the caller
      */
     public Bitmap getCircularLetterTile(String displayName) {
-        return getCircularBitmap(getLetterTile(displayName));
+        // Don't allow empty strings
+        if (displayName == null || displayName.length() == 0) { return null; }
+        return copyOf(getCachedCircularLetterTile(createKey(displayName, true)));
+    }
+
+    /**
+     * Gets the cached circular tile of the given key, drawing and caching it
+     * if needed. The tile is shared, so it must never be handed out.
+     *
+     * @param key {@link TileKey} of a circular tile
+     * @return {@link Bitmap}
+     */
+    private Bitmap getCachedCircularLetterTile(TileKey key) {
+        Bitmap bitmap = tileCache.get(key);
+        if (bitmap == null) {
+            // The square tile is only drawn to be clipped, so it isn't cached
+            final Bitmap square = drawLetterTile(key);
+            bitmap = getCircularBitmap(square);
+            square.recycle();
+            tileCache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Creates a {@link LetterTileDrawable} drawing the same tile as
+     * {@link #getCircularLetterTile(String)}, without allocating any bitmap.
+     *
+     * @param displayName Any string value
+     * @return {@link LetterTileDrawable}
+     */
+    public LetterTileDrawable getLetterTileDrawable(String displayName) {
+        // Don't allow empty strings
+        if (displayName == null || displayName.length() == 0) { return null; }
+
+        final LetterTileDrawable drawable = new LetterTileDrawable();
+        updateLetterTileDrawable(drawable, displayName);
+        return drawable;
+    }
+
+    /**
+     * Updates the given drawable to draw the tile of the given string instead,
+     * so that a view can keep displaying the same drawable for every chip.
+     *
+     * @param drawable {@link LetterTileDrawable}
+     * @param displayName Any non-empty string value
+     * @return False if the size of the tile changed, which the view needs to be
+     *         told about by setting the drawable again
+     */
+    public boolean updateLetterTileDrawable(LetterTileDrawable drawable, String displayName) {
+        if (drawable == null) {
+            throw new NullPointerException("Drawable cannot be null!");
+        }
+        if (displayName == null || displayName.length() == 0) {
+            throw new IllegalArgumentException("Display name cannot be empty!");
+        }
+        final boolean sameSize = (drawable.getSize() == tileSize);
+        final TileKey key = createKey(displayName, true);
+        drawable.setTile(key.glyph, key.color, key.typeface, defaultBitmap, tileSize);
+        return sameSize;
     }
 
     /**
@@ -106,34 +224,71 @@ public class LetterTileProvider {
      * color, picked from {@link #colors}, based on the hashed value of the given string.
      *
      * @param displayName Any string value
-     * @return {@link Bitmap}
+     * @return New {@link Bitmap} owned by the caller
      */
     public Bitmap getLetterTile(String displayName) {
         // Don't allow empty strings
         if (displayName == null || displayName.length() == 0) { return null; }
 
-        final char firstChar = displayName.charAt(0);
+        // Copy the same tile drawn before, if it's still cached
+        final TileKey key = createKey(displayName, false);
+        Bitmap bitmap = tileCache.get(key);
+        if (bitmap == null) {
+            bitmap = drawLetterTile(key);
+            tileCache.put(key, bitmap);
+        }
+        return copyOf(bitmap);
+    }
 
+    /**
+     * Copies the given cached tile into a new mutable Bitmap, so that callers
+     * can never change or recycle the cached one.
+     *
+     * @param bitmap Cached {@link Bitmap}
+     * @return {@link Bitmap}
+     */
+    private static Bitmap copyOf(Bitmap bitmap) {
+        return bitmap.copy(Bitmap.Config.ARGB_8888, true);
+    }
+
+    /**
+     * Draws the square tile of the given key onto a new Bitmap, without
+     * caching it.
+     *
+     * @param key {@link TileKey}
+     * @return {@link Bitmap}
+     */
+    private Bitmap drawLetterTile(TileKey key) {
         // Create a Bitmap with the width & height specified from resources
+        final int tileSize = key.size;
         final Bitmap bitmap = Bitmap.createBitmap(tileSize, tileSize, Bitmap.Config.ARGB_8888);
 
-        // Setup our canvas for drawing
-        final Canvas c = canvas;
+        // Setup this thread's canvas for drawing
+        final RenderContext context = renderContexts.get();
+        final Canvas c = context.canvas;
         c.setBitmap(bitmap);
-        c.drawColor(pickColor(displayName));
+        c.drawColor(key.color);
 
         // We want to use the default Bitmap if our character is not a letter or digit
-        if (Character.isLetterOrDigit(firstChar)) {
-            this.firstChar[0] = Character.toUpperCase(firstChar);
-
-            // Set the paint text size as half the bitmap's height
-            this.paint.setTextSize(tileSize >> 1);
+        if (key.glyph != 0 && GlyphAtlas.contains(key.glyph)) {
+            // Copy the glyph out of the atlas, with the text size as half the
+            // bitmap's height
+            GlyphAtlas.obtain(key.typeface, tileSize >> 1).draw(c, key.glyph,
+                    tileSize / 2, tileSize / 2, context.paint, context.glyphBounds);
+        } else if (key.glyph != 0) {
+            final TextPaint paint = context.paint;
+            final Rect bounds = context.bounds;
+            context.firstChar[0] = key.glyph;
+
+            // Set the paint typeface, and text size as half the bitmap's height
+            paint.setTypeface(key.typeface);
+            paint.setTextSize(tileSize >> 1);
 
             // Measure the bounds of our first character
-            this.paint.getTextBounds(this.firstChar, 0, 1, bounds);
+            paint.getTextBounds(context.firstChar, 0, 1, bounds);
 
             // Draw the character on the Canvas
-            c.drawText(this.firstChar, 0, 1,
+            c.drawText(context.firstChar, 0, 1,
                     tileSize / 2,
                     tileSize / 2 + (bounds.bottom - bounds.top) / 2,
                     paint);
@@ -144,9 +299,68 @@ public class LetterTileProvider {
             c.drawBitmap(defaultBitmap, defSize, defSize, null);
         }
 
+        // Don't keep the tile alive through this thread's canvas
+        c.setBitmap(null);
         return bitmap;
     }
 
+    /**
+     * Creates the key of the tile for the given string, using the current
+     * colors, tile size, and typeface.
+     *
+     * @param displayName Any non-empty string value
+     * @param circular True if the tile is circular
+     * @return {@link TileKey}
+     */
+    private TileKey createKey(String displayName, boolean circular) {
+        // The default image is used if the first character isn't a letter or digit
+        final char firstChar = displayName.charAt(0);
+        final char glyph = Character.isLetterOrDigit(firstChar)
+                ? Character.toUpperCase(firstChar) : 0;
+        return new TileKey(glyph, pickColor(displayName), tileSize,
+                typeface, circular);
+    }
+
+    /**
+     * Draws the circular tiles of the given chips on a background thread, so
+     * they're already cached when the chips are displayed. Any older prefetch
+     * still in progress is cancelled.
+     *
+     * Note: the default image renderer draws tiles using {@link LetterTileDrawable},
+     * which doesn't need any bitmap; this is meant for renderers that display
+     * {@link #getCircularLetterTile(String)}, to call after setting their chips.
+     *
+     * @param chips Collection of {@link Chip}
+     */
+    public void prefetch(Collection<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+
+        // Only chips without avatars display a tile
+        final List<String> titles = new ArrayList<>(chips.size());
+        for (Chip chip : chips) {
+            if (chip != null && chip.getAvatarUri() == null && chip.getAvatarDrawable() == null) {
+                titles.add(chip.getTitle());
+            }
+        }
+        final int generation = prefetchGeneration.incrementAndGet();
+        PREFETCH_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String title : titles) {
+                    if (generation != prefetchGeneration.get()) {
+                        return;
+                    }
+                    // Tiles already cached are only looked up
+                    if (title != null && title.length() > 0) {
+                        getCachedCircularLetterTile(createKey(title, true));
+                    }
+                }
+            }
+        });
+    }
+
     /**
      * Randomly picks one of the colors in {@link #colors} using an algorithm based
      * on the hashed value of the given key.
@@ -154,12 +368,16 @@ public class LetterTileProvider {
      * This is consistent because String.hashCode() is guaranteed to not change across
      * Java versions, which implicates that the same key always maps to the same color.
      *
+     * The remainder is made positive instead of the hash, which picks the same colors as
+     * Math.abs(hash) would, without overflowing for Integer.MIN_VALUE.
+     *
      * @param key Any string value
      * @return {@link android.support.annotation.ColorInt}
      */
     private int pickColor(String key) {
-        final int whichColor = Math.abs(key.hashCode()) % colors.length;
-        return Color.parseColor(colors[whichColor]);
+        final int[] colors = this.colors;
+        final int remainder = key.hashCode() % colors.length;
+        return colors[remainder < 0 ? -remainder : remainder];
     }
 
     /**
@@ -220,4 +438,83 @@ public class LetterTileProvider {
         dr.draw(canvas);
         return bitmap;
     }
-}
\ No newline at end of file
+
+
+    /**
+     * Nested inner-subclass of {@link LruCache} that bounds the cached tiles
+     * by the number of bytes of their bitmaps.
+     */
+    private static final class TileCache extends LruCache<TileKey, Bitmap> {
+        TileCache() {
+            // Use up to 1/32 of the available memory
+            super((int)Math.min(Runtime.getRuntime().maxMemory() / 32, Integer.MAX_VALUE));
+        }
+
+        @Override
+        protected int sizeOf(TileKey key, Bitmap bitmap) {
+            return bitmap.getByteCount();
+        }
+    }
+
+
+    /**
+     * Immutable key of a tile, made of everything its bitmap depends on.
+     */
+    private static final class TileKey {
+        /* Upper-cased first letter or digit, or 0 for the default image */
+        final char glyph;
+        final int color;
+        final int size;
+        final Typeface typeface;
+        final boolean circular;
+
+        TileKey(char glyph, int color, int size, Typeface typeface, boolean circular) {
+            this.glyph = glyph;
+            this.color = color;
+            this.size = size;
+            this.typeface = typeface;
+            this.circular = circular;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) { return true; }
+            if (!(o instanceof TileKey)) { return false; }
+            final TileKey key = (TileKey)o;
+            return glyph == key.glyph
+                    && color == key.color
+                    && size == key.size
+                    && circular == key.circular
+                    && (typeface == null ? key.typeface == null : typeface.equals(key.typeface));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = glyph;
+            result = 31 * result + color;
+            result = 31 * result + size;
+            result = 31 * result + (typeface != null ? typeface.hashCode() : 0);
+            result = 31 * result + (circular ? 1 : 0);
+            return result;
+        }
+    }
+
+
+    /**
+     * Canvas and paint used to draw tiles on a single thread.
+     */
+    private static final class RenderContext {
+        final TextPaint paint = new TextPaint();
+        final Rect bounds = new Rect();
+        final RectF glyphBounds = new RectF();
+        final Canvas canvas = new Canvas();
+        final char[] firstChar = new char[1];
+
+        RenderContext() {
+            // Setup the paint
+            this.paint.setColor(Color.WHITE);
+            this.paint.setTextAlign(Paint.Align.CENTER);
+            this.paint.setAntiAlias(true);
+        }
+    }
+}
@@ -1,8 +1,13 @@
 package com.tylersuehr.chips;
 import android.support.annotation.VisibleForTesting;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Copyright © 2017 Tyler Suehr
@@ -10,43 +15,100 @@ import java.util.List;
  * Subclass of {@link ObservableChipDataSource} that stores chips using
  * an {@link ArrayList}.
  *
+ * Each list of chips is paired with a {@link HashSet} of the same chips, so that
+ * checking if a chip exists in a list doesn't have to scan it. The lists returned
+ * by this are unmodifiable, which keeps them in sync with their sets.
+ *
+ * Every chip in this is also indexed by its ID and its title, as they were when the
+ * chip was added, so that chips can be looked up by either without a scan.
+ *
+ * Every change notifies observers with a {@link ChipChangeEvent} giving the positions
+ * of the chips inserted into, or removed from, each list.
+ *
+ * Snapshots of the lists are only copied when asked for, and a list that hasn't changed
+ * since the last snapshot is shared with the new one instead of being copied again.
+ *
  * @author Tyler Suehr
  * @version 1.0
  */
 public class ListChipDataSource extends ObservableChipDataSource {
     /* Aggregation of all the original chips */
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
-    List<Chip> mOriginal;
+    final List<Chip> mOriginal;
+    private final Set<Chip> mOriginalSet;
+    private final List<Chip> mOriginalView;
 
     /* Aggregation of all filtered chips, not selected by the user */
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
-    List<Chip> mFiltered;
+    final List<Chip> mFiltered;
+    private final Set<Chip> mFilteredSet;
+    private final List<Chip> mFilteredView;
 
     /* Aggregation of all selected chips, selected by the user */
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
-    List<Chip> mSelected;
+    final List<Chip> mSelected;
+    private final Set<Chip> mSelectedSet;
+    private final List<Chip> mSelectedView;
+
+    /* Indexes of all the chips in this by ID and by title */
+    private final ChipIndex mIdIndex;
+    private final ChipIndex mTitleIndex;
+
+    /* Incremented every time any list of chips changes */
+    private long mVersion;
+    /* Snapshot of the current version, or null until asked for */
+    private ChipSnapshot mSnapshot;
+    /* Copies of the lists of chips that haven't changed since the last snapshot */
+    private List<Chip> mSelectedCopy;
+    private List<Chip> mFilteredCopy;
+    private List<Chip> mOriginalCopy;
 
 
     /* Construct with all empty lists */
     public ListChipDataSource() {
         mOriginal = new ArrayList<>();
+        mOriginalSet = new HashSet<>();
+        mOriginalView = Collections.unmodifiableList(mOriginal);
         mFiltered = new ArrayList<>();
+        mFilteredSet = new HashSet<>();
+        mFilteredView = Collections.unmodifiableList(mFiltered);
         mSelected = new ArrayList<>();
+        mSelectedSet = new HashSet<>();
+        mSelectedView = Collections.unmodifiableList(mSelected);
+        mIdIndex = new ChipIndex();
+        mTitleIndex = new ChipIndex();
     }
 
     @Override
     public List<Chip> getSelectedChips() {
-        return mSelected;
+        return mSelectedView;
     }
 
     @Override
     public List<Chip> getFilteredChips() {
-        return mFiltered;
+        return mFilteredView;
     }
 
     @Override
     public List<Chip> getOriginalChips() {
-        return mOriginal;
+        return mOriginalView;
+    }
+
+    @Override
+    public ChipSnapshot getSnapshot() {
+        if (mSnapshot == null) {
+            if (mSelectedCopy == null) {
+                mSelectedCopy = Collections.unmodifiableList(new ArrayList<>(mSelected));
+            }
+            if (mFilteredCopy == null) {
+                mFilteredCopy = Collections.unmodifiableList(new ArrayList<>(mFiltered));
+            }
+            if (mOriginalCopy == null) {
+                mOriginalCopy = Collections.unmodifiableList(new ArrayList<>(mOriginal));
+            }
+            mSnapshot = new ChipSnapshot(mVersion, mSelectedCopy, mFilteredCopy, mOriginalCopy);
+        }
+        return mSnapshot;
     }
 
     @Override
@@ -59,30 +121,87 @@ public class ListChipDataSource extends ObservableChipDataSource {
         return mSelected.get(position);
     }
 
+    @Override
+    public Chip getFilteredChipById(Object id) {
+        return (id == null) ? null : mIdIndex.find(id, mFilteredSet);
+    }
+
+    @Override
+    public Chip getSelectedChipById(Object id) {
+        return (id == null) ? null : mIdIndex.find(id, mSelectedSet);
+    }
+
+    @Override
+    public Chip getFilteredChipByTitle(String title) {
+        return (title == null) ? null : mTitleIndex.find(title, mFilteredSet);
+    }
+
+    @Override
+    public Chip getSelectedChipByTitle(String title) {
+        return (title == null) ? null : mTitleIndex.find(title, mSelectedSet);
+    }
+
     @Override
     public void setFilterableChips(List<? extends Chip> chips) {
         if (chips == null) {
             throw new NullPointerException("Chips cannot be null!");
         }
 
-        // Instantiate our chip lists with the size of the given list
-        mSelected = new ArrayList<>();
-        mOriginal = new ArrayList<>(chips.size());
-        mFiltered = new ArrayList<>(chips.size());
-
-        // Only copy the data from our chips into the original and filtered lists
+        // Reset our chip lists for the size of the given list
+        mSelected.clear();
+        mSelectedSet.clear();
+        mOriginal.clear();
+        mOriginalSet.clear();
+        mFiltered.clear();
+        mFilteredSet.clear();
+        mIdIndex.clear();
+        mTitleIndex.clear();
+        ((ArrayList<Chip>)mOriginal).ensureCapacity(chips.size());
+        ((ArrayList<Chip>)mFiltered).ensureCapacity(chips.size());
+
+        // Only copy the data from our chips into the original and filtered lists,
+        // indexing each chip's normalized title and subtitle for the chip filter
         for (Chip chip : chips) {
             chip.setFilterable(true);
+            chip.buildFilterKeys();
             mOriginal.add(chip);
-            mFiltered.add(chip);
+            indexChip(chip);
         }
 
         // Sort the lists
         Collections.sort(mOriginal, Chip.getComparator());
-        Collections.sort(mFiltered, Chip.getComparator());
+        mFiltered.addAll(mOriginal);
+        mOriginalSet.addAll(mOriginal);
+        mFilteredSet.addAll(mOriginal);
+        onOriginalChipsChanged();
 
         // Tell our observers!
-        notifyDataSourceChanged();
+        notifyChanged(ChipChangeEvent.everythingChanged());
+    }
+
+    /**
+     * Replaces the filtered chips with the given chips, leaving out any that
+     * aren't in the original chips anymore, like chips filtered from an older
+     * snapshot that were selected or removed meanwhile.
+     */
+    @Override
+    public void setFilteredChips(List<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        if (chips == mFilteredView) {
+            return;
+        }
+        mFiltered.clear();
+        mFilteredSet.clear();
+        for (Chip chip : chips) {
+            if (mOriginalSet.contains(chip) && mFilteredSet.add(chip)) {
+                mFiltered.add(chip);
+            }
+        }
+        mVersion++;
+        mSnapshot = null;
+        mFilteredCopy = null;
     }
 
     @Override
@@ -91,14 +210,52 @@ public class ListChipDataSource extends ObservableChipDataSource {
             throw new NullPointerException("Chip cannot be null!");
         }
         chip.setFilterable(true);
-        mOriginal.add(chip);
-        mFiltered.add(chip);
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
+        addFilterable(chip, event);
+        indexChip(chip);
 
-        // Sort the filterable chips
-        Collections.sort(mOriginal, Chip.getComparator());
-        Collections.sort(mFiltered, Chip.getComparator());
+        notifyChanged(event.build());
+    }
 
-        notifyDataSourceChanged();
+    @Override
+    public void appendFilterableChips(Collection<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        final Set<Chip> unique = new HashSet<>(chips.size());
+        final List<Chip> appended = new ArrayList<>(chips.size());
+        for (Chip chip : chips) {
+            if (chip == null) {
+                throw new NullPointerException("Chip cannot be null!");
+            }
+            if (!mOriginalSet.contains(chip) && !mSelectedSet.contains(chip) && unique.add(chip)) {
+                chip.setFilterable(true);
+                chip.buildFilterKeys();
+                appended.add(chip);
+            }
+        }
+        if (appended.isEmpty()) {
+            return;
+        }
+
+        // Only the appended chips need sorting, then they're merged into the
+        // original chips in one pass. If the filtered chips are narrowed by a
+        // filter pattern, the appended chips are left out of them until it's
+        // applied again; otherwise, they're merged into them as well
+        Collections.sort(appended, Chip.getComparator());
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
+        if (mFiltered.size() == mOriginal.size()) {
+            addAllSorted(mFiltered, appended, ChipChangeEvent.FILTERED, event);
+            mFilteredSet.addAll(appended);
+        }
+        addAllSorted(mOriginal, appended, ChipChangeEvent.ORIGINAL, event);
+        mOriginalSet.addAll(appended);
+        for (Chip chip : appended) {
+            indexChip(chip);
+        }
+        onOriginalChipsAdded(appended);
+
+        notifyChanged(event.build());
     }
 
     @Override
@@ -106,8 +263,10 @@ public class ListChipDataSource extends ObservableChipDataSource {
         if (chip == null) {
             throw new NullPointerException("Chip cannot be null!");
         }
-        mSelected.add(chip);
-        notifyDataSourceChanged();
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
+        addSelected(chip, event);
+        indexChip(chip);
+        notifyChanged(event.build());
         notifyChipSelected(chip);
     }
 
@@ -118,12 +277,14 @@ public class ListChipDataSource extends ObservableChipDataSource {
         }
 
         // Check if chip is filterable
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
         if (chip.isFilterable()) {
             // Check if chip is actually in the filtered list
-            if (mFiltered.contains(chip)) {
-                mOriginal.remove(chip);
-                mFiltered.remove(chip);
-                mSelected.add(chip);
+            if (mFilteredSet.contains(chip)) {
+                event.removed(ChipChangeEvent.FILTERED, removeSorted(mFiltered, chip), chip);
+                mFilteredSet.remove(chip);
+                removeOriginal(chip, event);
+                addSelected(chip, event);
             } else {
                 throw new IllegalArgumentException("Chip is not in filtered chip list!");
             }
@@ -131,7 +292,7 @@ public class ListChipDataSource extends ObservableChipDataSource {
             throw new IllegalArgumentException("Cannot take a non-filterable chip!");
         }
 
-        notifyDataSourceChanged();
+        notifyChanged(event.build());
         notifyChipSelected(chip);
     }
 
@@ -144,17 +305,19 @@ public class ListChipDataSource extends ObservableChipDataSource {
         }
 
         // Check if chip is filterable
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
         if (foundChip.isFilterable()) {
             // Since the child isn't null, we know it's in the filtered list
-            mOriginal.remove(foundChip);
-            mFiltered.remove(foundChip);
-            mSelected.add(foundChip);
-        } else {
-            // Just add it to the selected list only
-            mSelected.add(foundChip);
+            mFiltered.remove(position);
+            mFilteredSet.remove(foundChip);
+            event.removed(ChipChangeEvent.FILTERED, position, foundChip);
+            removeOriginal(foundChip, event);
         }
 
-        notifyDataSourceChanged();
+        // Non-filterable chips are just added to the selected list
+        addSelected(foundChip, event);
+
+        notifyChanged(event.build());
         notifyChipSelected(foundChip);
     }
 
@@ -165,20 +328,19 @@ public class ListChipDataSource extends ObservableChipDataSource {
         }
 
         // Check if chip is actually selected
-        if (mSelected.contains(chip)) {
-            mSelected.remove(chip);
+        if (mSelectedSet.contains(chip)) {
+            final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
+            final int position = mSelected.indexOf(chip);
+            mSelected.remove(position);
+            mSelectedSet.remove(chip);
+            event.removed(ChipChangeEvent.SELECTED, position, chip);
 
             // Check if the chip is filterable
             if (chip.isFilterable()) {
-                mFiltered.add(chip);
-                mOriginal.add(chip);
-
-                // Sort the filterable chips
-                Collections.sort(mFiltered, Chip.getComparator());
-                Collections.sort(mOriginal, Chip.getComparator());
+                addFilterable(chip, event);
             }
 
-            notifyDataSourceChanged();
+            notifyChanged(event.build());
             notifyChipUnselected(chip);
         } else {
             throw new IllegalArgumentException("Chip is not in selected chip list!");
@@ -194,27 +356,124 @@ public class ListChipDataSource extends ObservableChipDataSource {
         }
 
         // Since not null, we know the chip is selected
-        mSelected.remove(foundChip);
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
+        mSelected.remove(position);
+        mSelectedSet.remove(foundChip);
+        event.removed(ChipChangeEvent.SELECTED, position, foundChip);
 
         // Check if the chip is filterable
         if (foundChip.isFilterable()) {
-            mFiltered.add(foundChip);
-            mOriginal.add(foundChip);
-
-            // Sort the filterable chips
-            Collections.sort(mFiltered, Chip.getComparator());
-            Collections.sort(mOriginal, Chip.getComparator());
+            addFilterable(foundChip, event);
         }
 
-        notifyDataSourceChanged();
+        notifyChanged(event.build());
         notifyChipUnselected(foundChip);
     }
 
+    @Override
+    public void addSelectedChips(Collection<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        final Set<Chip> added = new LinkedHashSet<>(chips.size());
+        for (Chip chip : chips) {
+            if (chip == null) {
+                throw new NullPointerException("Chip cannot be null!");
+            }
+            if (!mSelectedSet.contains(chip)) {
+                added.add(chip);
+            }
+        }
+        selectAll(added);
+    }
+
+    @Override
+    public void takeChips(Collection<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        final Set<Chip> taken = new LinkedHashSet<>(chips.size());
+        for (Chip chip : chips) {
+            if (chip == null) {
+                throw new NullPointerException("Chip cannot be null!");
+            }
+            if (!chip.isFilterable()) {
+                throw new IllegalArgumentException("Cannot take a non-filterable chip!");
+            }
+            if (!mFilteredSet.contains(chip)) {
+                throw new IllegalArgumentException("Chip is not in filtered chip list!");
+            }
+            taken.add(chip);
+        }
+        selectAll(taken);
+    }
+
+    @Override
+    public void replaceChips(Collection<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        final Set<Chip> replaced = new LinkedHashSet<>(chips.size());
+        for (Chip chip : chips) {
+            if (chip == null) {
+                throw new NullPointerException("Chip cannot be null!");
+            }
+            if (!mSelectedSet.contains(chip)) {
+                throw new IllegalArgumentException("Chip is not in selected chip list!");
+            }
+            replaced.add(chip);
+        }
+        if (replaced.isEmpty()) {
+            return;
+        }
+
+        // Remove all the chips from the selected chips in one pass
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
+        removeAll(mSelected, replaced, ChipChangeEvent.SELECTED, event);
+        mSelectedSet.removeAll(replaced);
+
+        // Merge the filterable ones back into the original and filtered chips
+        final List<Chip> filterable = new ArrayList<>(replaced.size());
+        for (Chip chip : replaced) {
+            if (chip.isFilterable()) {
+                chip.buildFilterKeys();
+                filterable.add(chip);
+            }
+        }
+        Collections.sort(filterable, Chip.getComparator());
+        addAllSorted(mOriginal, filterable, ChipChangeEvent.ORIGINAL, event);
+        addAllSorted(mFiltered, filterable, ChipChangeEvent.FILTERED, event);
+        mOriginalSet.addAll(filterable);
+        mFilteredSet.addAll(filterable);
+        onOriginalChipsAdded(filterable);
+
+        beginBatch();
+        try {
+            notifyChanged(event.build());
+            for (Chip chip : replaced) {
+                notifyChipUnselected(chip);
+            }
+        } finally {
+            commit();
+        }
+    }
+
     @Override
     public void clearFilteredChips() {
+        for (Chip chip : mOriginal) {
+            if (!mSelectedSet.contains(chip)) {
+                unindexChip(chip);
+            }
+        }
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder()
+                .removed(ChipChangeEvent.ORIGINAL, 0, mOriginal)
+                .removed(ChipChangeEvent.FILTERED, 0, mFiltered);
         mOriginal.clear();
+        mOriginalSet.clear();
         mFiltered.clear();
-        notifyDataSourceChanged();
+        mFilteredSet.clear();
+        onOriginalChipsChanged();
+        notifyChanged(event.build());
     }
 
     @Override
@@ -223,10 +482,17 @@ public class ListChipDataSource extends ObservableChipDataSource {
         // we need to store a clone of the selected list of chips
         final List<Chip> clone = new ArrayList<>(mSelected);
         mSelected.clear();
+        mSelectedSet.clear();
+        for (Chip chip : clone) {
+            if (!mOriginalSet.contains(chip) && !mFilteredSet.contains(chip)) {
+                unindexChip(chip);
+            }
+        }
 
         // Let's notify our change observers first (so internal components can
         // instantly get notified of the data source change
-        notifyDataSourceChanged();
+        notifyChanged(new ChipChangeEvent.Builder()
+                .removed(ChipChangeEvent.SELECTED, 0, clone).build());
 
         // Now let's tell our selection observers!
         for (Chip chip : clone) {
@@ -239,7 +505,7 @@ public class ListChipDataSource extends ObservableChipDataSource {
         if (chip == null) {
             throw new NullPointerException("Chip cannot be null!");
         }
-        return mFiltered.contains(chip);
+        return mFilteredSet.contains(chip);
     }
 
     @Override
@@ -247,7 +513,7 @@ public class ListChipDataSource extends ObservableChipDataSource {
         if (chip == null) {
             throw new NullPointerException("Chip cannot be null!");
         }
-        return mSelected.contains(chip);
+        return mSelectedSet.contains(chip);
     }
 
     @Override
@@ -255,8 +521,328 @@ public class ListChipDataSource extends ObservableChipDataSource {
         if (chip == null) {
             throw new NullPointerException("Chip cannot be null!");
         }
-        return (mOriginal.contains(chip)
-                || mFiltered.contains(chip)
-                || mSelected.contains(chip));
+        return (mOriginalSet.contains(chip)
+                || mFilteredSet.contains(chip)
+                || mSelectedSet.contains(chip));
+    }
+
+    /**
+     * Drops the copies of the lists of chips that changed, so the next snapshot
+     * copies them again, and notifies change observers of the given changes.
+     *
+     * @param event {@link ChipChangeEvent}
+     */
+    private void notifyChanged(ChipChangeEvent event) {
+        mVersion++;
+        mSnapshot = null;
+        if (event.hasChanges(ChipChangeEvent.SELECTED)) {
+            mSelectedCopy = null;
+        }
+        if (event.hasChanges(ChipChangeEvent.FILTERED)) {
+            mFilteredCopy = null;
+        }
+        if (event.hasChanges(ChipChangeEvent.ORIGINAL)) {
+            mOriginalCopy = null;
+        }
+        notifyDataSourceChanged(event);
     }
+
+    /**
+     * Indexes the given chip, which was just added to this, by its ID and title.
+     * @param chip {@link Chip}
+     */
+    private void indexChip(Chip chip) {
+        if (chip.getId() != null) {
+            mIdIndex.add(chip.getId(), chip);
+        }
+        mTitleIndex.add(chip.getTitle(), chip);
+    }
+
+    /**
+     * Removes the given chip, which is no longer in this, from the indexes.
+     * @param chip {@link Chip}
+     */
+    private void unindexChip(Chip chip) {
+        if (chip.getId() != null) {
+            mIdIndex.remove(chip.getId(), chip);
+        }
+        mTitleIndex.remove(chip.getTitle(), chip);
+    }
+
+    /**
+     * Adds the given chips, none of which are selected yet, to the end of the
+     * selected chips; taking any of them that are in the original chips out of
+     * the original chips, and out of the filtered chips if they're in them.
+     *
+     * The filtered chips are usually narrowed by the last filter pattern, so a
+     * chip can be in the original chips without being in the filtered chips.
+     *
+     * @param chips Set of {@link Chip}
+     */
+    private void selectAll(Set<Chip> chips) {
+        if (chips.isEmpty()) {
+            return;
+        }
+
+        // Remove the chips from the filtered and original chips in one pass each;
+        // only the chips in either list are already indexed
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
+        final Set<Chip> taken = new HashSet<>();
+        for (Chip chip : chips) {
+            if (mOriginalSet.contains(chip) || mFilteredSet.contains(chip)) {
+                taken.add(chip);
+            }
+        }
+        if (!taken.isEmpty()) {
+            removeAll(mFiltered, taken, ChipChangeEvent.FILTERED, event);
+            mFilteredSet.removeAll(taken);
+            removeAll(mOriginal, taken, ChipChangeEvent.ORIGINAL, event);
+            mOriginalSet.removeAll(taken);
+            for (Chip chip : taken) {
+                onOriginalChipRemoved(chip);
+                chip.clearFilterKeys();
+            }
+        }
+
+        // Append all the chips to the selected chips
+        ((ArrayList<Chip>)mSelected).ensureCapacity(mSelected.size() + chips.size());
+        for (Chip chip : chips) {
+            addSelected(chip, event);
+            if (!taken.contains(chip)) {
+                indexChip(chip);
+            }
+        }
+
+        beginBatch();
+        try {
+            notifyChanged(event.build());
+            for (Chip chip : chips) {
+                notifyChipSelected(chip);
+            }
+        } finally {
+            commit();
+        }
+    }
+
+    /**
+     * Adds the given chip to the end of the selected chips.
+     *
+     * @param chip {@link Chip}
+     * @param event Used to record the change
+     */
+    private void addSelected(Chip chip, ChipChangeEvent.Builder event) {
+        event.inserted(ChipChangeEvent.SELECTED, mSelected.size(), chip);
+        mSelected.add(chip);
+        mSelectedSet.add(chip);
+    }
+
+    /**
+     * Adds the given chip to both the original and filtered chips, keeping
+     * them sorted, and indexes it for the chip filter.
+     *
+     * @param chip {@link Chip}
+     * @param event Used to record the changes
+     */
+    private void addFilterable(Chip chip, ChipChangeEvent.Builder event) {
+        chip.buildFilterKeys();
+        event.inserted(ChipChangeEvent.ORIGINAL, addSorted(mOriginal, chip), chip);
+        event.inserted(ChipChangeEvent.FILTERED, addSorted(mFiltered, chip), chip);
+        mOriginalSet.add(chip);
+        mFilteredSet.add(chip);
+        onOriginalChipAdded(chip);
+    }
+
+    /**
+     * Removes the given chip from the original chips and releases its
+     * index for the chip filter.
+     *
+     * @param chip {@link Chip}
+     * @param event Used to record the change
+     */
+    private void removeOriginal(Chip chip, ChipChangeEvent.Builder event) {
+        final int position = removeSorted(mOriginal, chip);
+        if (position >= 0) {
+            event.removed(ChipChangeEvent.ORIGINAL, position, chip);
+        }
+        mOriginalSet.remove(chip);
+        onOriginalChipRemoved(chip);
+        chip.clearFilterKeys();
+    }
+
+    /**
+     * Inserts the given chip into the given sorted list of chips, using a
+     * binary search to find where it belongs.
+     *
+     * @param chips Sorted list of {@link Chip}
+     * @param chip {@link Chip} to insert
+     * @return Position the chip was inserted at
+     */
+    static int addSorted(List<Chip> chips, Chip chip) {
+        int index = Collections.binarySearch(chips, chip, Chip.getComparator());
+        if (index < 0) {
+            index = -(index + 1);
+        }
+        chips.add(index, chip);
+        return index;
+    }
+
+    /**
+     * Removes the given chip from the given sorted list of chips, using a
+     * binary search to find where it is.
+     *
+     * @param chips Sorted list of {@link Chip}
+     * @param chip {@link Chip} to remove
+     * @return Position the chip was removed from, or -1 if it wasn't found
+     */
+    static int removeSorted(List<Chip> chips, Chip chip) {
+        int position = indexOfSorted(chips, chip);
+        if (position < 0) {
+            // The chip's title may have changed since it was added
+            position = chips.indexOf(chip);
+        }
+        if (position >= 0) {
+            chips.remove(position);
+        }
+        return position;
+    }
+
+    /**
+     * Finds the given chip in the given sorted list of chips using a binary
+     * search, without falling back to scanning the list.
+     *
+     * @param chips Sorted list of {@link Chip}
+     * @param chip {@link Chip} to find
+     * @return Position of the chip, or -1 if it wasn't found where it sorts
+     */
+    static int indexOfSorted(List<Chip> chips, Chip chip) {
+        final Comparator<Chip> comparator = Chip.getComparator();
+        final int index = Collections.binarySearch(chips, chip, comparator);
+        if (index >= 0) {
+            // Look through the chips sorted equally to the given chip
+            for (int i = index; i >= 0 && comparator.compare(chips.get(i), chip) == 0; i--) {
+                if (chips.get(i).equals(chip)) {
+                    return i;
+                }
+            }
+            for (int i = index + 1; i < chips.size() && comparator.compare(chips.get(i), chip) == 0; i++) {
+                if (chips.get(i).equals(chip)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes all the given chips from the given list of chips in one pass,
+     * keeping the order of the chips left.
+     *
+     * @param chips List of {@link Chip}
+     * @param removed Set of {@link Chip} to remove
+     * @param list Which list of chips is being changed
+     * @param event Used to record the changes
+     */
+    private static void removeAll(List<Chip> chips, Set<Chip> removed,
+                                  int list, ChipChangeEvent.Builder event) {
+        int write = 0;
+        for (int read = 0, size = chips.size(); read < size; read++) {
+            final Chip chip = chips.get(read);
+            if (removed.contains(chip)) {
+                // Chips removed before this one shifted it down to here
+                event.removed(list, write, chip);
+            } else {
+                chips.set(write++, chip);
+            }
+        }
+        chips.subList(write, chips.size()).clear();
+    }
+
+    /**
+     * Merges the given sorted chips into the given sorted list of chips in
+     * one pass, keeping it sorted.
+     *
+     * Where each added chip belongs is found using a binary search, and the
+     * chips between those positions are copied in bulk, so merging a few chips
+     * into a long list only compares a few chips.
+     *
+     * @param chips Sorted list of {@link Chip}
+     * @param added Sorted list of {@link Chip} to add
+     * @param list Which list of chips is being changed
+     * @param event Used to record the changes, or null
+     */
+    static void addAllSorted(List<Chip> chips, List<Chip> added,
+                             int list, ChipChangeEvent.Builder event) {
+        if (added.isEmpty()) {
+            return;
+        }
+        final Comparator<Chip> comparator = Chip.getComparator();
+        final int size = chips.size();
+        if (size == 0 || comparator.compare(chips.get(size - 1), added.get(0)) <= 0) {
+            // Every added chip sorts after the chips already in the list
+            if (event != null) {
+                for (int i = 0; i < added.size(); i++) {
+                    event.inserted(list, size + i, added.get(i));
+                }
+            }
+            chips.addAll(added);
+            return;
+        }
+
+        final List<Chip> merged = new ArrayList<>(size + added.size());
+        int from = 0;
+        for (Chip chip : added) {
+            // Find the first chip sorting after the added one, so that
+            // chips sorting equally stay ahead of it
+            int low = from, high = size;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (comparator.compare(chips.get(mid), chip) <= 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            merged.addAll(chips.subList(from, low));
+            from = low;
+            if (event != null) {
+                event.inserted(list, merged.size(), chip);
+            }
+            merged.add(chip);
+        }
+        merged.addAll(chips.subList(from, size));
+        chips.clear();
+        chips.addAll(merged);
+    }
+
+    /**
+     * Called when the original chips were replaced or cleared, before
+     * notifying any observers.
+     */
+    void onOriginalChipsChanged() {}
+
+    /**
+     * Called when a chip was added to the original chips, before notifying
+     * any observers.
+     * @param chip {@link Chip} added
+     */
+    void onOriginalChipAdded(Chip chip) {}
+
+    /**
+     * Called when the given chips were merged into the original chips, before
+     * notifying any observers. By default, this calls {@link #onOriginalChipAdded(Chip)}
+     * for each of them; subclasses can handle them at once instead.
+     * @param chips Sorted list of {@link Chip} added
+     */
+    void onOriginalChipsAdded(List<Chip> chips) {
+        for (Chip chip : chips) {
+            onOriginalChipAdded(chip);
+        }
+    }
+
+    /**
+     * Called when a chip was removed from the original chips, before notifying
+     * any observers.
+     * @param chip {@link Chip} removed
+     */
+    void onOriginalChipRemoved(Chip chip) {}
 }
\ No newline at end of file
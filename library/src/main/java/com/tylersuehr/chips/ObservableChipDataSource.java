@@ -1,29 +1,49 @@
 package com.tylersuehr.chips;
 import android.support.annotation.VisibleForTesting;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Copyright © 2017 Tyler Suehr
  *
  * Implementation of {@link ChipDataSource} to provide the basic functionality for
- * observers ONLY. It manages the observers in a {@link java.util.LinkedList}, and
+ * observers ONLY. It manages the observers in a {@link CopyOnWriteArrayList}, and
  * includes convenience methods for notifying them too.
  *
+ * Observers are added and removed far less often than they're notified, so each
+ * notification iterates over a snapshot of the observers without any locking. This
+ * makes adding or removing observers safe from any thread, even from an observer
+ * while it's being notified.
+ *
  * Note: when notifying observers, it's a good idea to notify change observers first
  * because that will update the internal components before any other observers.
  *
+ * Many changes can be made as a batch, between {@link #beginBatch()} and {@link #commit()},
+ * in which case observers are only notified once the batch is committed: change observers
+ * get one event with all the changes, and selection observers get the chips selected and
+ * unselected by the batch.
+ *
  * @author Tyler Suehr
  * @version 1.0
  */
 public abstract class ObservableChipDataSource implements ChipDataSource {
     /* Aggregation of observers to watch changes to chip selection */
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
-    List<SelectionObserver> mSelectionObservers;
+    final List<SelectionObserver> mSelectionObservers = new CopyOnWriteArrayList<>();
 
     /* Aggregation of observers to watch changes to data source */
     @VisibleForTesting(otherwise = VisibleForTesting.PRIVATE)
-    List<ChangeObserver> mChangeObservers;
+    final List<ChangeObserver> mChangeObservers = new CopyOnWriteArrayList<>();
+
+    /* Number of batches begun but not committed yet */
+    private int mBatchDepth;
+    /* Changes and selections made during the current batch */
+    private ChipChangeEvent.Builder mBatchEvent;
+    private Set<Chip> mBatchSelected;
+    private Set<Chip> mBatchUnselected;
 
 
     @Override
@@ -31,9 +51,6 @@ public abstract class ObservableChipDataSource implements ChipDataSource {
         if (observer == null) {
             throw new NullPointerException("Observer cannot be null!");
         }
-        if (mSelectionObservers == null) {
-            mSelectionObservers = new LinkedList<>();
-        }
         mSelectionObservers.add(observer);
     }
 
@@ -42,17 +59,12 @@ public abstract class ObservableChipDataSource implements ChipDataSource {
         if (observer == null) {
             throw new NullPointerException("Observer cannot be null!");
         }
-        if (mSelectionObservers != null) {
-            mSelectionObservers.remove(observer);
-        }
+        mSelectionObservers.remove(observer);
     }
 
     @Override
     public final void removeAllSelectionObservers() {
-        if (mSelectionObservers != null) {
-            mSelectionObservers.clear();
-            mSelectionObservers = null;
-        }
+        mSelectionObservers.clear();
     }
 
     @Override
@@ -60,9 +72,6 @@ public abstract class ObservableChipDataSource implements ChipDataSource {
         if (observer == null) {
             throw new NullPointerException("Observer cannot be null!");
         }
-        if (mChangeObservers == null) {
-            mChangeObservers = new LinkedList<>();
-        }
         mChangeObservers.add(observer);
     }
 
@@ -71,43 +80,102 @@ public abstract class ObservableChipDataSource implements ChipDataSource {
         if (observer == null) {
             throw new NullPointerException("Observer cannot be null!");
         }
-        if (mChangeObservers != null) {
-            mChangeObservers.remove(observer);
-        }
+        mChangeObservers.remove(observer);
     }
 
     @Override
     public final void removeAllChangedObservers() {
-        if (mChangeObservers != null) {
-            mChangeObservers.clear();
-            mChangeObservers = null;
-        }
+        mChangeObservers.clear();
     }
 
     @Override
     public final void cloneObservers(ChipDataSource to) {
-        if (mSelectionObservers != null) {
-            for (SelectionObserver ob : mSelectionObservers) {
-                to.addSelectionObserver(ob);
-            }
+        for (SelectionObserver ob : mSelectionObservers) {
+            to.addSelectionObserver(ob);
+        }
+        for (ChangeObserver ob : mChangeObservers) {
+            to.addChangedObserver(ob);
+        }
+    }
+
+    /**
+     * Begins a batch of changes, so that observers are only notified once
+     * the batch is committed. Batches can be nested, in which case observers
+     * are notified when the outermost batch is committed.
+     *
+     * Note: always call {@link #commit()}, preferably in a finally block.
+     */
+    public final void beginBatch() {
+        if (mBatchDepth++ == 0) {
+            mBatchEvent = new ChipChangeEvent.Builder();
+            mBatchSelected = new LinkedHashSet<>();
+            mBatchUnselected = new LinkedHashSet<>();
         }
-        if (mChangeObservers != null) {
-            for (ChangeObserver ob : mChangeObservers) {
-                to.addChangedObserver(ob);
+    }
+
+    /**
+     * Commits the current batch of changes, notifying observers of all the
+     * changes made since {@link #beginBatch()}.
+     */
+    public final void commit() {
+        if (mBatchDepth == 0) {
+            throw new IllegalStateException("No batch to commit!");
+        }
+        if (--mBatchDepth > 0) {
+            return;
+        }
+
+        final ChipChangeEvent.Builder event = mBatchEvent;
+        final List<Chip> selected = new ArrayList<>(mBatchSelected);
+        final List<Chip> unselected = new ArrayList<>(mBatchUnselected);
+        mBatchEvent = null;
+        mBatchSelected = null;
+        mBatchUnselected = null;
+
+        if (!event.isEmpty()) {
+            notifyDataSourceChanged(event.build());
+        }
+        if (!selected.isEmpty() || !unselected.isEmpty()) {
+            for (SelectionObserver ob : mSelectionObservers) {
+                if (ob instanceof BatchSelectionObserver) {
+                    ((BatchSelectionObserver)ob).onChipsSelectionChanged(selected, unselected);
+                } else {
+                    for (Chip chip : selected) {
+                        ob.onChipSelected(chip);
+                    }
+                    for (Chip chip : unselected) {
+                        ob.onChipDeselected(chip);
+                    }
+                }
             }
         }
     }
 
     /**
      * Notifies {@link #mChangeObservers} that a change to the data
-     * source happened.
+     * source happened, without telling what changed.
      */
     protected final void notifyDataSourceChanged() {
-        if (mChangeObservers != null) {
-            synchronized (this) {
-                for (ChangeObserver ob : mChangeObservers) {
-                    ob.onChipDataSourceChanged();
-                }
+        if (!mChangeObservers.isEmpty() || mBatchDepth > 0) {
+            notifyDataSourceChanged(ChipChangeEvent.everythingChanged());
+        }
+    }
+
+    /**
+     * Notifies {@link #mChangeObservers} that the given changes to the
+     * data source happened.
+     * @param event {@link ChipChangeEvent} describing the changes
+     */
+    protected final void notifyDataSourceChanged(ChipChangeEvent event) {
+        if (mBatchDepth > 0) {
+            mBatchEvent.append(event);
+            return;
+        }
+        for (ChangeObserver ob : mChangeObservers) {
+            if (ob instanceof ChangeEventObserver) {
+                ((ChangeEventObserver)ob).onChipDataSourceChanged(event);
+            } else {
+                ob.onChipDataSourceChanged();
             }
         }
     }
@@ -118,12 +186,15 @@ public abstract class ObservableChipDataSource implements ChipDataSource {
      * @param chip {@link Chip} selected
      */
     protected final void notifyChipSelected(Chip chip) {
-        if (mSelectionObservers != null) {
-            synchronized (this) {
-                for (SelectionObserver ob : mSelectionObservers) {
-                    ob.onChipSelected(chip);
-                }
+        if (mBatchDepth > 0) {
+            // Selecting a chip unselected in this batch cancels both out
+            if (!mBatchUnselected.remove(chip)) {
+                mBatchSelected.add(chip);
             }
+            return;
+        }
+        for (SelectionObserver ob : mSelectionObservers) {
+            ob.onChipSelected(chip);
         }
     }
 
@@ -133,12 +204,15 @@ public abstract class ObservableChipDataSource implements ChipDataSource {
      * @param chip {@link Chip} unselected
      */
     protected final void notifyChipUnselected(Chip chip) {
-        if (mSelectionObservers != null) {
-            synchronized (this) {
-                for (SelectionObserver ob : mSelectionObservers) {
-                    ob.onChipDeselected(chip);
-                }
+        if (mBatchDepth > 0) {
+            // Unselecting a chip selected in this batch cancels both out
+            if (!mBatchSelected.remove(chip)) {
+                mBatchUnselected.add(chip);
             }
+            return;
+        }
+        for (SelectionObserver ob : mSelectionObservers) {
+            ob.onChipDeselected(chip);
         }
     }
 }
\ No newline at end of file
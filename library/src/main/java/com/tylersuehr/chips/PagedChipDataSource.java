@@ -0,0 +1,760 @@
+package com.tylersuehr.chips;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copyright © 2017 Tyler Suehr
+ *
+ * Subclass of {@link ObservableChipDataSource} for huge lists of filterable chips, like an
+ * enterprise directory, that loads the chips matching a filter pattern in pages, on demand,
+ * instead of keeping every chip in memory.
+ *
+ * Subclasses only need to count and load the chips matching a filter pattern, which is
+ * done on a background thread. The filtered and original chips are lists that load the
+ * pages around the chips being displayed, returning null as a placeholder for each chip
+ * not loaded yet, and notify observers of the loaded chips once they are. Only the most
+ * recently used pages are kept in memory, so only a few hundred chips are alive at once.
+ *
+ * Pages are loaded one at a time for each data source, on threads of its own instead of
+ * the shared {@link android.os.AsyncTask} pool, which quickly fills up on older devices.
+ * Only the most recently requested pages are waiting to be loaded at once; older requests,
+ * and requests for lists that aren't displayed anymore, are dropped instead of queued.
+ *
+ * Selected chips are kept in memory, and must be left out of the counted and loaded chips
+ * by subclasses. Chips are matched by their IDs, so every chip loaded by this must have a
+ * unique ID. Since the chips are loaded in the background, selecting or unselecting chips
+ * only updates the filtered and original chips shortly after, and only the loaded chips
+ * are known to exist in them.
+ *
+ * Note: call {@link #refresh()} once this is ready to load chips, and every time the chips
+ * change. By default, the chips can't be set, added or cleared directly, since subclasses
+ * load them; the methods doing so ignore the given chips and only call {@link #refresh()},
+ * so they're safe to call through {@link ChipsInputLayout}. Subclasses that store their
+ * own chips, like {@link FtsChipDataSource}, override them.
+ *
+ * @author Tyler Suehr
+ * @version 1.0
+ */
+public abstract class PagedChipDataSource extends ObservableChipDataSource
+        implements SearchableChipDataSource {
+    /* Used to count and load chips off the main thread */
+    private static final ThreadPoolExecutor LOAD_EXECUTOR = new ThreadPoolExecutor(
+            2, 2, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            runnable.run();
+                        }
+                    }, "PagedChipDataSource");
+                }
+            });
+    static {
+        LOAD_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final int mPageSize;
+    private final int mMaxPages;
+
+    /* Aggregation of all selected chips, and the same chips by their keys */
+    private final List<Chip> mSelected = new ArrayList<>();
+    private final List<Chip> mSelectedView = Collections.unmodifiableList(mSelected);
+    private final Map<Object, Chip> mSelectedByKey = new HashMap<>();
+    /* Selected chips left out of the loaded chips, read on background threads */
+    private volatile List<Chip> mExcluded = Collections.emptyList();
+
+    /* Pages of the original chips and of the chips matching the filter */
+    private PagedChipList mOriginal;
+    private PagedChipList mFiltered;
+    /* Incremented every time the chips need to be counted again */
+    private volatile int mRefreshGeneration;
+    /* Most recently requested pages waiting to be loaded, newest last */
+    private final Deque<PageRequest> mPending = new ArrayDeque<>();
+    /* True while pages are being loaded; guarded by mPending */
+    private boolean mLoading;
+
+    /* Incremented every time any list of chips changes */
+    private long mVersion;
+    private ChipSnapshot mSnapshot;
+    private List<Chip> mSelectedCopy;
+
+
+    /* Construct with pages of 50 chips, keeping 8 of them in memory */
+    public PagedChipDataSource() {
+        this(50, 8);
+    }
+
+    /**
+     * Constructs with the given size of pages, and number of pages kept in
+     * memory for each list of chips.
+     *
+     * @param pageSize Number of chips in a page
+     * @param maxPages Number of pages kept in memory, at least 3
+     */
+    public PagedChipDataSource(int pageSize, int maxPages) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive!");
+        }
+        if (maxPages < 3) {
+            throw new IllegalArgumentException("At least 3 pages must be kept in memory!");
+        }
+        mPageSize = pageSize;
+        mMaxPages = maxPages;
+        mOriginal = new PagedChipList(this, "", mExcluded, 0, mPageSize, mMaxPages);
+        mFiltered = mOriginal;
+    }
+
+    /**
+     * Counts the chips matching the given filter pattern, leaving out the
+     * given selected chips. This is called on a background thread.
+     *
+     * @param pattern Lower-cased and trimmed filter pattern, empty for all
+     * @param excluded Selected chips to leave out
+     * @return Number of matching chips
+     */
+    protected abstract int countChips(String pattern, List<Chip> excluded);
+
+    /**
+     * Loads a page of the chips matching the given filter pattern, leaving out
+     * the given selected chips, always in the same order. This is called on a
+     * background thread.
+     *
+     * @param pattern Lower-cased and trimmed filter pattern, empty for all
+     * @param excluded Selected chips to leave out
+     * @param start Position of the first chip to load
+     * @param count Number of chips to load
+     * @return List of {@link Chip}
+     */
+    protected abstract List<Chip> loadChips(String pattern, List<Chip> excluded, int start, int count);
+
+    /**
+     * Counts and loads the original and filtered chips again in the background,
+     * keeping the same pages in memory, and notifies observers once they're
+     * loaded. Call this once ready to load chips, and every time they change.
+     */
+    public final void refresh() {
+        final int generation = ++mRefreshGeneration;
+        final List<Chip> excluded = mExcluded;
+        final String pattern = mFiltered.getPattern();
+        final int[] originalPages = mOriginal.getLoadedPages();
+        final int[] filteredPages = mFiltered.getLoadedPages();
+        LOAD_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mRefreshGeneration) {
+                    // A newer refresh is on its way
+                    return;
+                }
+                final PagedChipList original = createList("", excluded, originalPages);
+                final PagedChipList filtered = (pattern.length() == 0) ? original
+                        : createList(pattern, excluded, filteredPages);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onRefreshed(generation, original, filtered);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public List<Chip> findChips(String pattern) {
+        return createList(pattern, mExcluded, new int[] { 0 });
+    }
+
+    @Override
+    public List<Chip> getSelectedChips() {
+        return mSelectedView;
+    }
+
+    @Override
+    public List<Chip> getFilteredChips() {
+        return mFiltered;
+    }
+
+    @Override
+    public List<Chip> getOriginalChips() {
+        return mOriginal;
+    }
+
+    @Override
+    public ChipSnapshot getSnapshot() {
+        if (mSnapshot == null) {
+            if (mSelectedCopy == null) {
+                mSelectedCopy = Collections.unmodifiableList(new ArrayList<>(mSelected));
+            }
+            mSnapshot = new ChipSnapshot(mVersion, mSelectedCopy, mFiltered, mOriginal);
+        }
+        return mSnapshot;
+    }
+
+    /**
+     * Gets the filtered chip at the given position, or null if it's not
+     * loaded yet.
+     */
+    @Override
+    public Chip getFilteredChip(int position) {
+        return mFiltered.get(position);
+    }
+
+    @Override
+    public Chip getSelectedChip(int position) {
+        return mSelected.get(position);
+    }
+
+    /**
+     * Gets the filtered chip with the given ID, only if it's loaded.
+     */
+    @Override
+    public Chip getFilteredChipById(Object id) {
+        if (id == null) {
+            return null;
+        }
+        for (Chip chip : mFiltered.getLoadedChips()) {
+            if (id.equals(chip.getId())) {
+                return chip;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Chip getSelectedChipById(Object id) {
+        return (id == null) ? null : mSelectedByKey.get(id);
+    }
+
+    /**
+     * Gets the filtered chip with the given title, only if it's loaded.
+     */
+    @Override
+    public Chip getFilteredChipByTitle(String title) {
+        if (title == null) {
+            return null;
+        }
+        for (Chip chip : mFiltered.getLoadedChips()) {
+            if (title.equals(chip.getTitle())) {
+                return chip;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Chip getSelectedChipByTitle(String title) {
+        if (title == null) {
+            return null;
+        }
+        for (Chip chip : mSelected) {
+            if (title.equals(chip.getTitle())) {
+                return chip;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ignores the given chips, since subclasses load their own, and calls
+     * {@link #refresh()}.
+     */
+    @Override
+    public void setFilterableChips(List<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        refresh();
+    }
+
+    /**
+     * Replaces the filtered chips with the given chips, which must have been
+     * found by {@link #findChips(String)}, or be the original chips.
+     */
+    @Override
+    public void setFilteredChips(List<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        if (!(chips instanceof PagedChipList)) {
+            throw new IllegalArgumentException("Chips were not found by this data source!");
+        }
+        if (chips != mFiltered) {
+            mFiltered = (PagedChipList)chips;
+            mVersion++;
+            mSnapshot = null;
+            dropStalePages();
+        }
+    }
+
+    @Override
+    public void takeChip(Chip chip) {
+        if (chip == null) {
+            throw new NullPointerException("Chip cannot be null!");
+        }
+        if (!chip.isFilterable()) {
+            throw new IllegalArgumentException("Cannot take a non-filterable chip!");
+        }
+        if (mSelectedByKey.containsKey(keyOf(chip))) {
+            throw new IllegalArgumentException("Chip is not in filtered chip list!");
+        }
+
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
+        select(chip, event);
+        onSelectionChanged(event.build(), true);
+        notifyChipSelected(chip);
+    }
+
+    @Override
+    public void takeChip(int position) {
+        final Chip foundChip = mFiltered.get(position);
+        if (foundChip == null) {
+            throw new NullPointerException("Chip cannot be null; " +
+                    "not loaded in filtered chip list!");
+        }
+        takeChip(foundChip);
+    }
+
+    @Override
+    public void replaceChip(Chip chip) {
+        if (chip == null) {
+            throw new NullPointerException("Chip cannot be null!");
+        }
+        final int position = mSelected.indexOf(chip);
+        if (position < 0) {
+            throw new IllegalArgumentException("Chip is not in selected chip list!");
+        }
+        replaceChip(position);
+    }
+
+    @Override
+    public void replaceChip(int position) {
+        final Chip foundChip = mSelected.get(position);
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
+        unselect(position, event);
+        onSelectionChanged(event.build(), foundChip.isFilterable());
+        notifyChipUnselected(foundChip);
+    }
+
+    /**
+     * Ignores the given chip, since subclasses load their own, and calls
+     * {@link #refresh()}.
+     */
+    @Override
+    public void addFilteredChip(Chip chip) {
+        if (chip == null) {
+            throw new NullPointerException("Chip cannot be null!");
+        }
+        refresh();
+    }
+
+    /**
+     * Ignores the given chips, since subclasses load their own, and calls
+     * {@link #refresh()}.
+     */
+    @Override
+    public void appendFilterableChips(Collection<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        refresh();
+    }
+
+    @Override
+    public void addSelectedChip(Chip chip) {
+        if (chip == null) {
+            throw new NullPointerException("Chip cannot be null!");
+        }
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
+        select(chip, event);
+        onSelectionChanged(event.build(), chip.isFilterable());
+        notifyChipSelected(chip);
+    }
+
+    @Override
+    public void addSelectedChips(Collection<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        final Set<Chip> added = new LinkedHashSet<>(chips.size());
+        for (Chip chip : chips) {
+            if (chip == null) {
+                throw new NullPointerException("Chip cannot be null!");
+            }
+            if (!mSelectedByKey.containsKey(keyOf(chip))) {
+                added.add(chip);
+            }
+        }
+        selectAll(added);
+    }
+
+    @Override
+    public void takeChips(Collection<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        final Set<Chip> taken = new LinkedHashSet<>(chips.size());
+        for (Chip chip : chips) {
+            if (chip == null) {
+                throw new NullPointerException("Chip cannot be null!");
+            }
+            if (!chip.isFilterable()) {
+                throw new IllegalArgumentException("Cannot take a non-filterable chip!");
+            }
+            if (mSelectedByKey.containsKey(keyOf(chip))) {
+                throw new IllegalArgumentException("Chip is not in filtered chip list!");
+            }
+            taken.add(chip);
+        }
+        selectAll(taken);
+    }
+
+    @Override
+    public void replaceChips(Collection<? extends Chip> chips) {
+        if (chips == null) {
+            throw new NullPointerException("Chips cannot be null!");
+        }
+        final Set<Chip> replaced = new LinkedHashSet<>(chips.size());
+        for (Chip chip : chips) {
+            if (chip == null) {
+                throw new NullPointerException("Chip cannot be null!");
+            }
+            if (mSelectedByKey.get(keyOf(chip)) != chip) {
+                throw new IllegalArgumentException("Chip is not in selected chip list!");
+            }
+            replaced.add(chip);
+        }
+        if (replaced.isEmpty()) {
+            return;
+        }
+
+        // Unselect from the end, so the positions of the rest don't change
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
+        boolean filterable = false;
+        for (int i = mSelected.size() - 1; i >= 0; i--) {
+            final Chip chip = mSelected.get(i);
+            if (replaced.contains(chip)) {
+                filterable |= chip.isFilterable();
+                unselect(i, event);
+            }
+        }
+
+        beginBatch();
+        try {
+            onSelectionChanged(event.build(), filterable);
+            for (Chip chip : replaced) {
+                notifyChipUnselected(chip);
+            }
+        } finally {
+            commit();
+        }
+    }
+
+    /**
+     * Only calls {@link #refresh()}, since subclasses load their own chips.
+     */
+    @Override
+    public void clearFilteredChips() {
+        refresh();
+    }
+
+    @Override
+    public void clearSelectedChips() {
+        final List<Chip> clone = new ArrayList<>(mSelected);
+        if (clone.isEmpty()) {
+            return;
+        }
+        mSelected.clear();
+        mSelectedByKey.clear();
+
+        beginBatch();
+        try {
+            onSelectionChanged(new ChipChangeEvent.Builder()
+                    .removed(ChipChangeEvent.SELECTED, 0, clone).build(), true);
+            for (Chip chip : clone) {
+                notifyChipUnselected(chip);
+            }
+        } finally {
+            commit();
+        }
+    }
+
+    /**
+     * Checks if the given chip is one of the loaded filtered chips, matched by its
+     * ID; chips whose page isn't loaded can't be known to be filtered.
+     */
+    @Override
+    public boolean existsInFiltered(Chip chip) {
+        if (chip == null) {
+            throw new NullPointerException("Chip cannot be null!");
+        }
+        final Object key = keyOf(chip);
+        return !mSelectedByKey.containsKey(key) && isLoaded(mFiltered, key);
+    }
+
+    @Override
+    public boolean existsInSelected(Chip chip) {
+        if (chip == null) {
+            throw new NullPointerException("Chip cannot be null!");
+        }
+        return mSelectedByKey.containsKey(keyOf(chip));
+    }
+
+    /**
+     * Checks if the given chip is selected, or one of the loaded filtered or
+     * original chips, matched by its ID.
+     */
+    @Override
+    public boolean existsInDataSource(Chip chip) {
+        if (chip == null) {
+            throw new NullPointerException("Chip cannot be null!");
+        }
+        final Object key = keyOf(chip);
+        return mSelectedByKey.containsKey(key)
+                || isLoaded(mFiltered, key)
+                || isLoaded(mOriginal, key);
+    }
+
+    /* Checks if a chip with the given key is in a loaded page of the given list */
+    private static boolean isLoaded(PagedChipList list, Object key) {
+        for (Chip chip : list.getLoadedChips()) {
+            if (key.equals(keyOf(chip))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Requests loading the given page of the given list of chips in the background,
+     * and notifies observers once it's loaded. If too many pages are waiting to be
+     * loaded, the oldest request is dropped. This must be called on the main thread.
+     */
+    void loadPage(PagedChipList list, int page) {
+        final PageRequest dropped;
+        synchronized (mPending) {
+            mPending.addLast(new PageRequest(list, page));
+            dropped = (mPending.size() > mMaxPages) ? mPending.removeFirst() : null;
+            if (!mLoading) {
+                mLoading = true;
+                LOAD_EXECUTOR.execute(mPageLoader);
+            }
+        }
+        if (dropped != null) {
+            dropped.list.onPageDropped(dropped.page);
+        }
+    }
+
+    /**
+     * Drops the requested pages of lists of chips that aren't displayed anymore.
+     * This must be called on the main thread.
+     */
+    private void dropStalePages() {
+        final List<PageRequest> dropped = new ArrayList<>();
+        synchronized (mPending) {
+            for (Iterator<PageRequest> it = mPending.iterator(); it.hasNext();) {
+                final PageRequest request = it.next();
+                if (request.list != mFiltered && request.list != mOriginal) {
+                    it.remove();
+                    dropped.add(request);
+                }
+            }
+        }
+        for (PageRequest request : dropped) {
+            request.list.onPageDropped(request.page);
+        }
+    }
+
+    /* Loads the requested pages, most recently requested first */
+    private final Runnable mPageLoader = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                final PageRequest request;
+                synchronized (mPending) {
+                    if (mPending.isEmpty()) {
+                        mLoading = false;
+                        return;
+                    }
+                    request = mPending.removeLast();
+                }
+
+                final PagedChipList list = request.list;
+                final int page = request.page;
+                final List<Chip> chips = load(list.getPattern(),
+                        list.getExcluded(), page, list.size());
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        list.onPageLoaded(page, chips);
+                        onPageLoaded(list, page * mPageSize, chips);
+                    }
+                });
+            }
+        }
+    };
+
+    private void onPageLoaded(PagedChipList list, int start, List<Chip> chips) {
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
+        if (list == mFiltered) {
+            event.changed(ChipChangeEvent.FILTERED, start, chips);
+        }
+        if (list == mOriginal) {
+            event.changed(ChipChangeEvent.ORIGINAL, start, chips);
+        }
+        if (!event.isEmpty()) {
+            notifyChanged(event.build());
+        }
+    }
+
+    private void onRefreshed(int generation, PagedChipList original, PagedChipList filtered) {
+        if (generation != mRefreshGeneration) {
+            // A newer refresh is on its way
+            return;
+        }
+
+        // The filter pattern may have changed while counting the chips
+        if (mFiltered.getPattern().length() == 0) {
+            mFiltered = original;
+        } else if (mFiltered.getPattern().equals(filtered.getPattern())) {
+            mFiltered = filtered;
+        } else if (mFiltered.getExcluded() != mExcluded) {
+            refresh();
+        }
+        mOriginal = original;
+        dropStalePages();
+
+        notifyChanged(new ChipChangeEvent.Builder()
+                .reset(ChipChangeEvent.FILTERED)
+                .reset(ChipChangeEvent.ORIGINAL).build());
+    }
+
+    /**
+     * Counts the chips matching the given pattern, and loads the given pages
+     * of them. This is called on a background thread.
+     */
+    private PagedChipList createList(String pattern, List<Chip> excluded, int[] pages) {
+        final int size = countChips(pattern, excluded);
+        final PagedChipList list = new PagedChipList(this, pattern, excluded,
+                size, mPageSize, mMaxPages);
+        for (int page : pages) {
+            if (page * mPageSize < size) {
+                list.putPage(page, load(pattern, excluded, page, size));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Loads the given page of the chips matching the given pattern. This is
+     * called on a background thread.
+     */
+    private List<Chip> load(String pattern, List<Chip> excluded, int page, int size) {
+        final int start = page * mPageSize;
+        final List<Chip> chips = loadChips(pattern, excluded,
+                start, Math.min(mPageSize, size - start));
+        for (Chip chip : chips) {
+            chip.setFilterable(true);
+        }
+        return chips;
+    }
+
+    private void selectAll(Set<Chip> chips) {
+        if (chips.isEmpty()) {
+            return;
+        }
+        final ChipChangeEvent.Builder event = new ChipChangeEvent.Builder();
+        boolean filterable = false;
+        for (Chip chip : chips) {
+            filterable |= chip.isFilterable();
+            select(chip, event);
+        }
+
+        beginBatch();
+        try {
+            onSelectionChanged(event.build(), filterable);
+            for (Chip chip : chips) {
+                notifyChipSelected(chip);
+            }
+        } finally {
+            commit();
+        }
+    }
+
+    private void select(Chip chip, ChipChangeEvent.Builder event) {
+        event.inserted(ChipChangeEvent.SELECTED, mSelected.size(), chip);
+        mSelected.add(chip);
+        mSelectedByKey.put(keyOf(chip), chip);
+    }
+
+    private void unselect(int position, ChipChangeEvent.Builder event) {
+        final Chip chip = mSelected.remove(position);
+        mSelectedByKey.remove(keyOf(chip));
+        event.removed(ChipChangeEvent.SELECTED, position, chip);
+    }
+
+    /**
+     * Notifies observers of the given changes to the selected chips, then
+     * counts the filtered and original chips again if the selected chips
+     * left out of them changed.
+     */
+    private void onSelectionChanged(ChipChangeEvent event, boolean excludedChanged) {
+        notifyChanged(event);
+        if (excludedChanged) {
+            final List<Chip> excluded = new ArrayList<>(mSelected.size());
+            for (Chip chip : mSelected) {
+                if (chip.isFilterable()) {
+                    excluded.add(chip);
+                }
+            }
+            mExcluded = Collections.unmodifiableList(excluded);
+            refresh();
+        }
+    }
+
+    private void notifyChanged(ChipChangeEvent event) {
+        mVersion++;
+        mSnapshot = null;
+        if (event.hasChanges(ChipChangeEvent.SELECTED)) {
+            mSelectedCopy = null;
+        }
+        notifyDataSourceChanged(event);
+    }
+
+    /* Chips are matched by their IDs, if they have any */
+    private static Object keyOf(Chip chip) {
+        return (chip.getId() != null) ? chip.getId() : chip;
+    }
+
+
+    /**
+     * Immutable request to load a page of a list of chips.
+     */
+    private static final class PageRequest {
+        final PagedChipList list;
+        final int page;
+
+        PageRequest(PagedChipList list, int page) {
+            this.list = list;
+            this.page = page;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.tylersuehr.chips;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copyright © 2017 Tyler Suehr
+ *
+ * Implementation of {@link List} for the chips matching a filter pattern in a
+ * {@link PagedChipDataSource}, which only keeps a few pages of those chips in memory.
+ *
+ * Its size is the number of matching chips, but getting a chip whose page isn't loaded
+ * returns null as a placeholder and starts loading that page, along with the pages
+ * around it, in the background. Once loaded, the data source tells its observers the
+ * placeholders changed. Only the most recently used pages are kept in memory.
+ *
+ * Note: this should only be used on the main thread, and never be iterated over as a
+ * whole, since that would load every page.
+ *
+ * @author Tyler Suehr
+ * @version 1.0
+ */
+final class PagedChipList extends AbstractList<Chip> {
+    private final PagedChipDataSource mDataSource;
+    private final String mPattern;
+    private final List<Chip> mExcluded;
+    private final int mSize;
+    private final int mPageSize;
+
+    /* Most recently used pages of chips, by page number */
+    private final Map<Integer, List<Chip>> mPages;
+    /* Page numbers being loaded in the background */
+    private final Set<Integer> mLoading = new HashSet<>();
+
+
+    PagedChipList(PagedChipDataSource dataSource, String pattern, List<Chip> excluded,
+                  int size, int pageSize, final int maxPages) {
+        mDataSource = dataSource;
+        mPattern = pattern;
+        mExcluded = excluded;
+        mSize = size;
+        mPageSize = pageSize;
+        mPages = new LinkedHashMap<Integer, List<Chip>>(maxPages, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<Chip>> eldest) {
+                return size() > maxPages;
+            }
+        };
+    }
+
+    @Override
+    public Chip get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+
+        // Prefetch the pages around this one, so scrolling either way
+        // finds them loaded already; the most recently requested page
+        // is loaded first, so request this one last
+        final int page = index / mPageSize;
+        loadPage(page - 1);
+        loadPage(page + 1);
+        loadPage(page);
+
+        final List<Chip> chips = mPages.get(page);
+        final int offset = index - page * mPageSize;
+        return (chips != null && offset < chips.size()) ? chips.get(offset) : null;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    String getPattern() {
+        return mPattern;
+    }
+
+    List<Chip> getExcluded() {
+        return mExcluded;
+    }
+
+    int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * Gets the numbers of the pages currently in memory.
+     */
+    int[] getLoadedPages() {
+        final int[] pages = new int[mPages.size()];
+        int i = 0;
+        for (Integer page : mPages.keySet()) {
+            pages[i++] = page;
+        }
+        return pages;
+    }
+
+    /**
+     * Gets the chips of the pages currently in memory.
+     */
+    List<Chip> getLoadedChips() {
+        final List<Chip> chips = new ArrayList<>(mPages.size() * mPageSize);
+        for (List<Chip> page : mPages.values()) {
+            chips.addAll(page);
+        }
+        return chips;
+    }
+
+    /**
+     * Stores a page loaded before this list was published, on a
+     * background thread.
+     */
+    void putPage(int page, List<Chip> chips) {
+        mPages.put(page, chips);
+    }
+
+    /**
+     * Stores a page loaded in the background. This must be called
+     * on the main thread.
+     */
+    void onPageLoaded(int page, List<Chip> chips) {
+        mLoading.remove(page);
+        mPages.put(page, chips);
+    }
+
+    /**
+     * Forgets that the given page is being loaded, because its request was
+     * dropped, so it can be requested again. This must be called on the
+     * main thread.
+     */
+    void onPageDropped(int page) {
+        mLoading.remove(page);
+    }
+
+    private void loadPage(int page) {
+        if (page < 0 || page * mPageSize >= mSize
+                || mPages.containsKey(page) || !mLoading.add(page)) {
+            return;
+        }
+        mDataSource.loadPage(this, page);
+    }
+}
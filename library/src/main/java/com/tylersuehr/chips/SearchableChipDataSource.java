@@ -0,0 +1,30 @@
+package com.tylersuehr.chips;
+import java.util.List;
+
+/**
+ * Copyright © 2017 Tyler Suehr
+ *
+ * Defines a {@link ChipDataSource} that is able to find the original chips matching
+ * a filter pattern by itself, using some kind of index, instead of having the chip
+ * filter scan every original chip.
+ *
+ * The chip filter will use this to get the candidates for a filter pattern whenever
+ * it can't narrow down its last results.
+ *
+ * @author Tyler Suehr
+ * @version 1.0
+ */
+public interface SearchableChipDataSource extends ChipDataSource {
+    /**
+     * Finds all the original chips whose normalized title or subtitle contains
+     * the given pattern, in the same order as {@link #getOriginalChips()}.
+     *
+     * Note: this is called on the chip filter's background thread, so it must be
+     * safe to call while the data source is being changed on the main thread.
+     *
+     * @param pattern Lower-cased and trimmed filter pattern
+     * @return List of {@link Chip}, or null to have the chip filter check every
+     *         original chip itself
+     */
+    List<Chip> findChips(String pattern);
+}
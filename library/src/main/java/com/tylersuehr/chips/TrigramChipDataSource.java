@@ -0,0 +1,261 @@
+package com.tylersuehr.chips;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copyright © 2017 Tyler Suehr
+ *
+ * Subclass of {@link ListChipDataSource} that keeps a trigram index over the normalized
+ * titles and subtitles of the original chips, so that filtering large lists of chips
+ * doesn't have to scan every one of them.
+ *
+ * Every run of three characters (trigram) in a chip's normalized title or subtitle maps
+ * to the list of chips containing it. Any chip matching a pattern must contain all the
+ * trigrams of that pattern, so only the chips in the shortest of those lists have to be
+ * checked against the pattern. Patterns shorter than three characters match most of the
+ * chips anyway, so those are still matched against every original chip by the filter.
+ *
+ * Note: the index costs memory proportional to the total length of the titles and
+ * subtitles; use this for large lists of chips, like a full address book.
+ *
+ * @author Tyler Suehr
+ * @version 1.0
+ */
+public class TrigramChipDataSource extends ListChipDataSource implements SearchableChipDataSource {
+    /* Maps each trigram to the original chips containing it */
+    private final Map<Long, PostingList> mIndex = new HashMap<>();
+
+
+    @Override
+    public List<Chip> findChips(String pattern) {
+        if (pattern.length() < 3) {
+            return null;
+        }
+
+        // Copy the least common trigram's chips, so that the index isn't
+        // locked against writers while they're matched
+        final List<List<Chip>> candidates;
+        synchronized (mIndex) {
+            PostingList shortest = null;
+            for (int i = 0; i + 3 <= pattern.length(); i++) {
+                final PostingList chips = mIndex.get(trigram(pattern, i));
+                if (chips == null) {
+                    return new ArrayList<>(0);
+                }
+                if (shortest == null || chips.size() < shortest.size()) {
+                    shortest = chips;
+                }
+            }
+            candidates = shortest.copyRuns();
+        }
+
+        // Only those chips can contain the whole pattern
+        final List<Chip> found = new ArrayList<>();
+        for (List<Chip> chips : candidates) {
+            final List<Chip> matches = new ArrayList<>();
+            for (Chip chip : chips) {
+                if (chip.matchesFilter(pattern)) {
+                    matches.add(chip);
+                }
+            }
+            addAllSorted(found, matches, ChipChangeEvent.ORIGINAL, null);
+        }
+        return found;
+    }
+
+    @Override
+    void onOriginalChipsChanged() {
+        // The original chips are sorted, so appending them
+        // keeps every list in the index sorted as well
+        synchronized (mIndex) {
+            mIndex.clear();
+            for (Chip chip : getOriginalChips()) {
+                for (Long trigram : trigramsOf(chip)) {
+                    PostingList chips = mIndex.get(trigram);
+                    if (chips == null) {
+                        chips = new PostingList();
+                        mIndex.put(trigram, chips);
+                    }
+                    chips.append(chip);
+                }
+            }
+        }
+    }
+
+    @Override
+    void onOriginalChipAdded(Chip chip) {
+        synchronized (mIndex) {
+            for (Long trigram : trigramsOf(chip)) {
+                PostingList chips = mIndex.get(trigram);
+                if (chips == null) {
+                    chips = new PostingList();
+                    mIndex.put(trigram, chips);
+                }
+                final List<Chip> run = new ArrayList<>(1);
+                run.add(chip);
+                chips.addAll(run);
+            }
+        }
+    }
+
+    /**
+     * Groups the given sorted chips by trigram, then adds each group to its
+     * list in the index at once, instead of inserting the chips one by one.
+     */
+    @Override
+    void onOriginalChipsAdded(List<Chip> added) {
+        final Map<Long, List<Chip>> groups = new HashMap<>();
+        for (Chip chip : added) {
+            for (Long trigram : trigramsOf(chip)) {
+                List<Chip> group = groups.get(trigram);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    groups.put(trigram, group);
+                }
+                group.add(chip);
+            }
+        }
+
+        synchronized (mIndex) {
+            for (Map.Entry<Long, List<Chip>> entry : groups.entrySet()) {
+                PostingList chips = mIndex.get(entry.getKey());
+                if (chips == null) {
+                    chips = new PostingList();
+                    mIndex.put(entry.getKey(), chips);
+                }
+                chips.addAll(entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    void onOriginalChipRemoved(Chip chip) {
+        synchronized (mIndex) {
+            for (Long trigram : trigramsOf(chip)) {
+                final PostingList chips = mIndex.get(trigram);
+                if (chips != null) {
+                    chips.remove(chip);
+                    if (chips.size() == 0) {
+                        mIndex.remove(trigram);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the distinct trigrams of the normalized title and subtitle of
+     * the given chip.
+     */
+    private static Set<Long> trigramsOf(Chip chip) {
+        final Set<Long> trigrams = new HashSet<>();
+        addTrigrams(trigrams, chip.getFilterTitle());
+        if (chip.getFilterSubtitle() != null) {
+            addTrigrams(trigrams, chip.getFilterSubtitle());
+        }
+        return trigrams;
+    }
+
+    private static void addTrigrams(Set<Long> trigrams, String text) {
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            trigrams.add(trigram(text, i));
+        }
+    }
+
+    /* Packs the three characters starting at the given index into a long */
+    private static long trigram(String text, int start) {
+        return ((long)text.charAt(start) << 32)
+                | ((long)text.charAt(start + 1) << 16)
+                | (long)text.charAt(start + 2);
+    }
+
+    /**
+     * Chips containing one trigram, kept as a few sorted runs instead of one
+     * sorted list, so that appending chips in batches doesn't copy the whole
+     * list every time.
+     *
+     * Each run is kept larger than twice the size of the run after it by merging
+     * them, so there are only a logarithmic number of runs, and every chip gets
+     * merged only a logarithmic number of times.
+     */
+    private static final class PostingList {
+        /* Sorted runs of chips, from the largest to the smallest */
+        private final List<List<Chip>> mRuns = new ArrayList<>(1);
+        /* Number of chips in all the runs */
+        private int mSize;
+
+
+        int size() {
+            return mSize;
+        }
+
+        /**
+         * Appends a chip sorting after all the chips in the list, only used
+         * while rebuilding the index from the sorted original chips.
+         */
+        void append(Chip chip) {
+            if (mRuns.isEmpty()) {
+                mRuns.add(new ArrayList<Chip>());
+            }
+            mRuns.get(mRuns.size() - 1).add(chip);
+            mSize++;
+        }
+
+        /**
+         * Adds the given sorted chips as a run, taking ownership of the list.
+         */
+        void addAll(List<Chip> run) {
+            mRuns.add(run);
+            mSize += run.size();
+
+            // Merge the last run into the one before it until the runs shrink fast enough
+            for (int last = mRuns.size() - 1;
+                 last > 0 && mRuns.get(last).size() * 2 > mRuns.get(last - 1).size(); last--) {
+                addAllSorted(mRuns.get(last - 1), mRuns.remove(last), ChipChangeEvent.ORIGINAL, null);
+            }
+        }
+
+        void remove(Chip chip) {
+            for (int i = 0; i < mRuns.size(); i++) {
+                if (remove(i, indexOfSorted(mRuns.get(i), chip))) {
+                    return;
+                }
+            }
+            // The chip's title may have changed since it was added
+            for (int i = 0; i < mRuns.size(); i++) {
+                if (remove(i, mRuns.get(i).indexOf(chip))) {
+                    return;
+                }
+            }
+        }
+
+        private boolean remove(int run, int position) {
+            if (position < 0) {
+                return false;
+            }
+            final List<Chip> chips = mRuns.get(run);
+            chips.remove(position);
+            if (chips.isEmpty()) {
+                mRuns.remove(run);
+            }
+            mSize--;
+            return true;
+        }
+
+        /**
+         * Copies the sorted runs of chips, so they can be read without
+         * holding the lock on the index.
+         */
+        List<List<Chip>> copyRuns() {
+            final List<List<Chip>> runs = new ArrayList<>(mRuns.size());
+            for (List<Chip> chips : mRuns) {
+                runs.add(new ArrayList<>(chips));
+            }
+            return runs;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.Color;
 import android.support.annotation.Px;
+import android.support.v7.widget.RecyclerView;
 import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 import android.view.ViewConfiguration;
@@ -31,6 +32,46 @@ final class Utils {
         return darkness >= 0.5;
     }
 
+    static String removeWhitespace(String text) {
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (isWhitespace(text.charAt(i))) {
+                // Only copy the text once we know it has whitespace
+                final StringBuilder sb = new StringBuilder(length);
+                sb.append(text, 0, i);
+                for (int j = i + 1; j < length; j++) {
+                    final char c = text.charAt(j);
+                    if (!isWhitespace(c)) {
+                        sb.append(c);
+                    }
+                }
+                return sb.toString();
+            }
+        }
+        return text;
+    }
+
+    /* Same characters as the regex class \s on Android, which is [\t\n\f\r\p{Z}]
+       in ICU, so it includes no-break and other Unicode spaces */
+    private static boolean isWhitespace(char c) {
+        switch (c) {
+            case '\t':
+            case '\n':
+            case '\f':
+            case '\r':
+                return true;
+            default:
+                switch (Character.getType(c)) {
+                    case Character.SPACE_SEPARATOR:
+                    case Character.LINE_SEPARATOR:
+                    case Character.PARAGRAPH_SEPARATOR:
+                        return true;
+                    default:
+                        return false;
+                }
+        }
+    }
+
     static int getWindowWidth(Context c) {
         final Resources res = c.getResources();
         return res.getDisplayMetrics().widthPixels;
@@ -67,4 +108,30 @@ final class Utils {
         }
         return result;
     }
+
+    /**
+     * Notifies the given adapter of each range of chips inserted into, removed
+     * from, or changed in the given list of chips by the given event. The adapter must have
+     * been displaying that list as it was before the event.
+     *
+     * Note: this can't dispatch a reset, check {@link ChipChangeEvent#isReset(int)}.
+     *
+     * @param event {@link ChipChangeEvent}
+     * @param list Which list of chips the adapter displays
+     * @param adapter Adapter displaying the list
+     */
+    static void dispatchChanges(ChipChangeEvent event, int list, RecyclerView.Adapter<?> adapter) {
+        for (ChipChangeEvent.Change change : event.getChanges()) {
+            if (change.getList() != list) { continue; }
+            if (change.getType() == ChipChangeEvent.Change.INSERTED) {
+                adapter.notifyItemRangeInserted(change.getPosition(), change.getCount());
+            } else if (change.getType() == ChipChangeEvent.Change.REMOVED) {
+                adapter.notifyItemRangeRemoved(change.getPosition(), change.getCount());
+            } else if (change.getType() == ChipChangeEvent.Change.CHANGED) {
+                adapter.notifyItemRangeChanged(change.getPosition(), change.getCount());
+            } else {
+                throw new IllegalArgumentException("Cannot dispatch a reset!");
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,239 @@
+package com.tylersuehr.chips;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link ChipChangeEvent}, and of how its builder merges changes.
+ */
+public class ChipChangeEventTest {
+    private final Chip a = new TestChip("A");
+    private final Chip b = new TestChip("B");
+    private final Chip c = new TestChip("C");
+    private final Chip d = new TestChip("D");
+
+
+    @Test
+    public void inserted_consecutivePositions_mergedIntoOneChange() throws Exception {
+        final ChipChangeEvent event = new ChipChangeEvent.Builder()
+                .inserted(ChipChangeEvent.SELECTED, 2, a)
+                .inserted(ChipChangeEvent.SELECTED, 3, b)
+                .inserted(ChipChangeEvent.SELECTED, 4, c)
+                .build();
+
+        assertEquals(1, event.getChanges().size());
+        assertChange(event.getChanges().get(0), ChipChangeEvent.SELECTED,
+                ChipChangeEvent.Change.INSERTED, 2, a, b, c);
+    }
+
+    @Test
+    public void inserted_withinLastRange_mergedAtItsPosition() throws Exception {
+        final ChipChangeEvent event = new ChipChangeEvent.Builder()
+                .inserted(ChipChangeEvent.FILTERED, 5, a)
+                .inserted(ChipChangeEvent.FILTERED, 6, c)
+                .inserted(ChipChangeEvent.FILTERED, 6, b)
+                .inserted(ChipChangeEvent.FILTERED, 5, d)
+                .build();
+
+        assertEquals(1, event.getChanges().size());
+        assertChange(event.getChanges().get(0), ChipChangeEvent.FILTERED,
+                ChipChangeEvent.Change.INSERTED, 5, d, a, b, c);
+    }
+
+    @Test
+    public void inserted_awayFromLastRange_addsChange() throws Exception {
+        final ChipChangeEvent event = new ChipChangeEvent.Builder()
+                .inserted(ChipChangeEvent.FILTERED, 5, a)
+                .inserted(ChipChangeEvent.FILTERED, 7, b)
+                .inserted(ChipChangeEvent.FILTERED, 4, c)
+                .build();
+
+        assertEquals(3, event.getChanges().size());
+    }
+
+    @Test
+    public void removed_samePosition_mergedForward() throws Exception {
+        final ChipChangeEvent event = new ChipChangeEvent.Builder()
+                .removed(ChipChangeEvent.ORIGINAL, 3, a)
+                .removed(ChipChangeEvent.ORIGINAL, 3, b)
+                .removed(ChipChangeEvent.ORIGINAL, 3, c)
+                .build();
+
+        assertEquals(1, event.getChanges().size());
+        assertChange(event.getChanges().get(0), ChipChangeEvent.ORIGINAL,
+                ChipChangeEvent.Change.REMOVED, 3, a, b, c);
+    }
+
+    @Test
+    public void removed_precedingPosition_mergedBackward() throws Exception {
+        final ChipChangeEvent event = new ChipChangeEvent.Builder()
+                .removed(ChipChangeEvent.ORIGINAL, 3, c)
+                .removed(ChipChangeEvent.ORIGINAL, 2, b)
+                .removed(ChipChangeEvent.ORIGINAL, 1, a)
+                .build();
+
+        assertEquals(1, event.getChanges().size());
+        assertChange(event.getChanges().get(0), ChipChangeEvent.ORIGINAL,
+                ChipChangeEvent.Change.REMOVED, 1, a, b, c);
+    }
+
+    @Test
+    public void changesToOtherLists_dontStopMerging() throws Exception {
+        final ChipChangeEvent event = new ChipChangeEvent.Builder()
+                .removed(ChipChangeEvent.FILTERED, 0, a)
+                .removed(ChipChangeEvent.ORIGINAL, 0, a)
+                .inserted(ChipChangeEvent.SELECTED, 0, a)
+                .removed(ChipChangeEvent.FILTERED, 0, b)
+                .removed(ChipChangeEvent.ORIGINAL, 0, b)
+                .inserted(ChipChangeEvent.SELECTED, 1, b)
+                .build();
+
+        assertEquals(3, event.getChanges().size());
+        assertChange(event.getChanges().get(0), ChipChangeEvent.FILTERED,
+                ChipChangeEvent.Change.REMOVED, 0, a, b);
+        assertChange(event.getChanges().get(1), ChipChangeEvent.ORIGINAL,
+                ChipChangeEvent.Change.REMOVED, 0, a, b);
+        assertChange(event.getChanges().get(2), ChipChangeEvent.SELECTED,
+                ChipChangeEvent.Change.INSERTED, 0, a, b);
+    }
+
+    @Test
+    public void otherTypeOfChange_stopsMerging() throws Exception {
+        final ChipChangeEvent event = new ChipChangeEvent.Builder()
+                .inserted(ChipChangeEvent.SELECTED, 0, a)
+                .removed(ChipChangeEvent.SELECTED, 0, a)
+                .inserted(ChipChangeEvent.SELECTED, 0, b)
+                .build();
+
+        assertEquals(3, event.getChanges().size());
+    }
+
+    @Test
+    public void append_mergesWithChangesSoFar() throws Exception {
+        final ChipChangeEvent first = new ChipChangeEvent.Builder()
+                .inserted(ChipChangeEvent.SELECTED, 0, a)
+                .removed(ChipChangeEvent.FILTERED, 2, a)
+                .build();
+        final ChipChangeEvent second = new ChipChangeEvent.Builder()
+                .inserted(ChipChangeEvent.SELECTED, 1, b)
+                .removed(ChipChangeEvent.FILTERED, 1, b)
+                .build();
+
+        final ChipChangeEvent event = new ChipChangeEvent.Builder()
+                .append(first).append(second).build();
+
+        assertEquals(2, event.getChanges().size());
+        assertChange(event.getChanges().get(0), ChipChangeEvent.SELECTED,
+                ChipChangeEvent.Change.INSERTED, 0, a, b);
+        assertChange(event.getChanges().get(1), ChipChangeEvent.FILTERED,
+                ChipChangeEvent.Change.REMOVED, 1, b, a);
+    }
+
+    @Test
+    public void append_keepsResetsAndChangedRanges() throws Exception {
+        final ChipChangeEvent appended = new ChipChangeEvent.Builder()
+                .changed(ChipChangeEvent.FILTERED, 4, Arrays.asList(a, b))
+                .reset(ChipChangeEvent.ORIGINAL)
+                .build();
+
+        final ChipChangeEvent event = new ChipChangeEvent.Builder().append(appended).build();
+
+        assertEquals(2, event.getChanges().size());
+        assertChange(event.getChanges().get(0), ChipChangeEvent.FILTERED,
+                ChipChangeEvent.Change.CHANGED, 4, a, b);
+        assertTrue(event.isReset(ChipChangeEvent.ORIGINAL));
+        assertFalse(event.isReset(ChipChangeEvent.FILTERED));
+    }
+
+    @Test
+    public void build_notAffectedByLaterChanges() throws Exception {
+        final ChipChangeEvent.Builder builder = new ChipChangeEvent.Builder()
+                .inserted(ChipChangeEvent.SELECTED, 0, a);
+        final ChipChangeEvent event = builder.build();
+        builder.inserted(ChipChangeEvent.SELECTED, 1, b);
+
+        assertChange(event.getChanges().get(0), ChipChangeEvent.SELECTED,
+                ChipChangeEvent.Change.INSERTED, 0, a);
+    }
+
+    @Test
+    public void hasStructuralChanges_ignoresChangedRanges() throws Exception {
+        final ChipChangeEvent event = new ChipChangeEvent.Builder()
+                .changed(ChipChangeEvent.FILTERED, 0, Arrays.asList(a, b))
+                .removed(ChipChangeEvent.ORIGINAL, 0, c)
+                .build();
+
+        assertTrue(event.hasChanges(ChipChangeEvent.FILTERED));
+        assertFalse(event.hasStructuralChanges(ChipChangeEvent.FILTERED));
+        assertTrue(event.hasStructuralChanges(ChipChangeEvent.ORIGINAL));
+        assertFalse(event.hasChanges(ChipChangeEvent.SELECTED));
+    }
+
+    @Test
+    public void everythingChanged_resetsEveryList() throws Exception {
+        final ChipChangeEvent event = ChipChangeEvent.everythingChanged();
+
+        assertTrue(event.isReset(ChipChangeEvent.SELECTED));
+        assertTrue(event.isReset(ChipChangeEvent.FILTERED));
+        assertTrue(event.isReset(ChipChangeEvent.ORIGINAL));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownList_throws() throws Exception {
+        new ChipChangeEvent.Builder().inserted(3, 0, a);
+    }
+
+    @Test
+    public void randomChanges_replayedOnCopy_giveSameList() throws Exception {
+        final Random random = new Random(7);
+        for (int run = 0; run < 200; run++) {
+            final List<Chip> chips = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                chips.add(new TestChip("Chip " + i));
+            }
+            final List<Chip> before = new ArrayList<>(chips);
+
+            // Change the list at random, recording every change
+            final ChipChangeEvent.Builder builder = new ChipChangeEvent.Builder();
+            for (int i = 0; i < 30; i++) {
+                if (chips.isEmpty() || random.nextBoolean()) {
+                    final int position = random.nextInt(chips.size() + 1);
+                    final Chip chip = new TestChip("Added " + i);
+                    chips.add(position, chip);
+                    builder.inserted(ChipChangeEvent.FILTERED, position, chip);
+                } else {
+                    final int position = random.nextInt(chips.size());
+                    builder.removed(ChipChangeEvent.FILTERED, position, chips.remove(position));
+                }
+            }
+
+            // Replay the merged changes, like an adapter would
+            final ChipChangeEvent event = new ChipChangeEvent.Builder()
+                    .append(builder.build()).build();
+            for (ChipChangeEvent.Change change : event.getChanges()) {
+                if (change.getType() == ChipChangeEvent.Change.INSERTED) {
+                    before.addAll(change.getPosition(), change.getChips());
+                } else {
+                    for (Chip chip : change.getChips()) {
+                        assertSame(chip, before.remove(change.getPosition()));
+                    }
+                }
+            }
+            assertEquals(chips, before);
+        }
+    }
+
+    private static void assertChange(ChipChangeEvent.Change change, int list, int type,
+                                     int position, Chip... chips) {
+        assertEquals(list, change.getList());
+        assertEquals(type, change.getType());
+        assertEquals(position, change.getPosition());
+        assertEquals(Arrays.asList(chips), change.getChips());
+    }
+}
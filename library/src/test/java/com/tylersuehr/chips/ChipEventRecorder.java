@@ -0,0 +1,128 @@
+package com.tylersuehr.chips;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Copyright © 2017 Tyler Suehr
+ *
+ * Observer used by the unit tests that keeps a copy of each list of chips in a data source,
+ * applying every {@link ChipChangeEvent} it's notified of to those copies, like an adapter
+ * would. The copies only match the data source if the events describe the changes exactly.
+ *
+ * @author Tyler Suehr
+ * @version 1.0
+ */
+final class ChipEventRecorder implements ChipDataSource.ChangeEventObserver,
+        ChipDataSource.BatchSelectionObserver {
+    private final ChipDataSource mDataSource;
+    private final List<List<Chip>> mLists = new ArrayList<>(3);
+
+    final List<ChipChangeEvent> events = new ArrayList<>();
+    final List<Chip> selected = new ArrayList<>();
+    final List<Chip> unselected = new ArrayList<>();
+    int batches;
+
+
+    ChipEventRecorder(ChipDataSource dataSource) {
+        mDataSource = dataSource;
+        mLists.add(new ArrayList<>(dataSource.getSelectedChips()));
+        mLists.add(new ArrayList<>(dataSource.getFilteredChips()));
+        mLists.add(new ArrayList<>(dataSource.getOriginalChips()));
+        dataSource.addChangedObserver(this);
+        dataSource.addSelectionObserver(this);
+    }
+
+    @Override
+    public void onChipDataSourceChanged() {
+        fail("Observers of events should be notified with an event!");
+    }
+
+    @Override
+    public void onChipDataSourceChanged(ChipChangeEvent event) {
+        events.add(event);
+        for (ChipChangeEvent.Change change : event.getChanges()) {
+            apply(mLists.get(change.getList()), change);
+        }
+    }
+
+    @Override
+    public void onChipSelected(Chip addedChip) {
+        selected.add(addedChip);
+    }
+
+    @Override
+    public void onChipDeselected(Chip removedChip) {
+        unselected.add(removedChip);
+    }
+
+    @Override
+    public void onChipsSelectionChanged(List<Chip> selectedChips, List<Chip> unselectedChips) {
+        batches++;
+        selected.addAll(selectedChips);
+        unselected.addAll(unselectedChips);
+    }
+
+    /**
+     * Checks that the copies of the lists of chips, updated by the events, match
+     * the lists of chips in the data source.
+     */
+    void assertListsMatch() {
+        assertEquals("Selected chips", mDataSource.getSelectedChips(),
+                mLists.get(ChipChangeEvent.SELECTED));
+        assertEquals("Filtered chips", mDataSource.getFilteredChips(),
+                mLists.get(ChipChangeEvent.FILTERED));
+        assertEquals("Original chips", mDataSource.getOriginalChips(),
+                mLists.get(ChipChangeEvent.ORIGINAL));
+    }
+
+    /**
+     * Replaces the copy of the filtered chips, like the chip filter does after
+     * setting the filtered chips, since that doesn't notify observers.
+     */
+    void syncFiltered() {
+        mLists.set(ChipChangeEvent.FILTERED, new ArrayList<>(mDataSource.getFilteredChips()));
+    }
+
+    void clear() {
+        events.clear();
+        selected.clear();
+        unselected.clear();
+        batches = 0;
+    }
+
+    /**
+     * Applies the given change to the given copy of a list of chips, checking the
+     * removed and changed chips are the ones at their positions.
+     */
+    private void apply(List<Chip> chips, ChipChangeEvent.Change change) {
+        final int position = change.getPosition();
+        switch (change.getType()) {
+            case ChipChangeEvent.Change.INSERTED:
+                assertTrue("Inserted past the end: " + change, position <= chips.size());
+                chips.addAll(position, change.getChips());
+                break;
+            case ChipChangeEvent.Change.REMOVED:
+                for (Chip chip : change.getChips()) {
+                    assertTrue("Removed past the end: " + change, position < chips.size());
+                    assertSame("Removed chip: " + change, chip, chips.remove(position));
+                }
+                break;
+            case ChipChangeEvent.Change.CHANGED:
+                for (int i = 0; i < change.getCount(); i++) {
+                    chips.set(position + i, change.getChips().get(i));
+                }
+                break;
+            default:
+                chips.clear();
+                chips.addAll(change.getList() == ChipChangeEvent.SELECTED
+                        ? mDataSource.getSelectedChips()
+                        : change.getList() == ChipChangeEvent.FILTERED
+                        ? mDataSource.getFilteredChips()
+                        : mDataSource.getOriginalChips());
+                break;
+        }
+    }
+}
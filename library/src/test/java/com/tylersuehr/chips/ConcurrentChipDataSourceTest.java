@@ -0,0 +1,234 @@
+package com.tylersuehr.chips;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Robolectric tests of {@link ConcurrentChipDataSource}, checking that changes made on
+ * other threads are only delivered on the main thread, together, and that the snapshot
+ * observers see always matches the events they were notified of.
+ *
+ * The test runs on the main thread; tasks posted to it from other threads only run
+ * when the main thread's scheduler is flushed.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class ConcurrentChipDataSourceTest {
+    private BlockingChipDataSource mChips;
+    private ConcurrentChipDataSource mDataSource;
+    private ChipEventRecorder mRecorder;
+
+
+    @Before
+    public void setUp() throws Exception {
+        mChips = new BlockingChipDataSource();
+        mDataSource = new ConcurrentChipDataSource(mChips);
+        mRecorder = new ChipEventRecorder(mDataSource);
+        mDataSource.setFilterableChips(Arrays.<Chip>asList(new TestChip("Dave"),
+                new TestChip("Alice"), new TestChip("Carol"), new TestChip("Bob")));
+        mRecorder.assertListsMatch();
+        mRecorder.clear();
+    }
+
+    @Test
+    public void mainThreadChanges_deliveredRightAway() throws Exception {
+        mDataSource.takeChip(chip("Bob"));
+
+        assertEquals(1, mRecorder.events.size());
+        assertEquals(Arrays.asList(chip("Bob")), mRecorder.selected);
+        mRecorder.assertListsMatch();
+    }
+
+    @Test
+    public void backgroundChanges_deliveredTogetherOnMainThread() throws Exception {
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                mDataSource.appendFilterableChips(Arrays.<Chip>asList(new TestChip("Eve")));
+                mDataSource.appendFilterableChips(Arrays.<Chip>asList(new TestChip("Ann")));
+                mDataSource.takeChip(chip("Carol"));
+            }
+        });
+
+        // Nothing is delivered, or swapped into the snapshot, until the main thread runs
+        assertTrue(mRecorder.events.isEmpty());
+        assertEquals(4, mDataSource.getOriginalChips().size());
+        assertNotNull(mDataSource.getSelectedChipByTitle("Carol"));
+
+        Robolectric.flushForegroundThreadScheduler();
+
+        assertEquals(1, mRecorder.events.size());
+        assertEquals(1, mRecorder.batches);
+        assertEquals(Arrays.asList(chip("Carol")), mRecorder.selected);
+        assertEquals(5, mDataSource.getOriginalChips().size());
+        mRecorder.assertListsMatch();
+    }
+
+    @Test
+    public void backgroundSelection_undoneBeforeDelivery_notDelivered() throws Exception {
+        final Chip bob = chip("Bob");
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                mDataSource.takeChip(bob);
+                mDataSource.replaceChip(bob);
+            }
+        });
+        Robolectric.flushForegroundThreadScheduler();
+
+        assertTrue(mRecorder.selected.isEmpty());
+        assertTrue(mRecorder.unselected.isEmpty());
+        mRecorder.assertListsMatch();
+    }
+
+    @Test
+    public void setFilteredChips_nothingPending_swappedInSilently() throws Exception {
+        final List<Chip> filtered = Arrays.asList(chip("Alice"), chip("Dave"));
+        mDataSource.setFilteredChips(filtered);
+
+        assertTrue(mRecorder.events.isEmpty());
+        assertEquals(filtered, mDataSource.getFilteredChips());
+        assertTrue(mDataSource.existsInFiltered(chip("Dave")));
+        assertFalse(mDataSource.existsInFiltered(chip("Bob")));
+    }
+
+    @Test
+    public void setFilteredChips_afterPendingChanges_leavesOutStaleChips() throws Exception {
+        // Filter results made from the snapshot before Bob was taken in the background
+        final List<Chip> filtered = Arrays.asList(chip("Bob"), chip("Carol"));
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                mDataSource.takeChip(chip("Bob"));
+            }
+        });
+        mDataSource.setFilteredChips(filtered);
+        Robolectric.flushForegroundThreadScheduler();
+
+        final ChipChangeEvent event = mRecorder.events.get(mRecorder.events.size() - 1);
+        assertTrue(event.isReset(ChipChangeEvent.FILTERED));
+        assertEquals(Arrays.asList(chip("Carol")), mDataSource.getFilteredChips());
+        assertFalse(mDataSource.existsInFiltered(mDataSource.getSelectedChip(0)));
+        mRecorder.assertListsMatch();
+    }
+
+    @Test
+    public void setFilteredChips_whileWriterBusy_doesNotWait() throws Exception {
+        final Chip eve = new TestChip("Eve");
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mDataSource.appendFilterableChips(Arrays.asList(eve));
+            }
+        });
+        mChips.block();
+        writer.start();
+        assertTrue(mChips.awaitBlocked());
+
+        // The writer holds the lock, so the filtered chips are left for it to set
+        final List<Chip> filtered = Arrays.asList(chip("Alice"), chip("Bob"));
+        mDataSource.setFilteredChips(filtered);
+        assertTrue(mRecorder.events.isEmpty());
+
+        mChips.unblock();
+        writer.join(5000);
+        Robolectric.flushForegroundThreadScheduler();
+
+        assertEquals(filtered, mDataSource.getFilteredChips());
+        assertTrue(mDataSource.getOriginalChips().contains(eve));
+        mRecorder.assertListsMatch();
+    }
+
+    @Test
+    public void lookups_seeLatestChipsBeforeDelivery() throws Exception {
+        final Chip eve = new TestChip("Eve");
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                mDataSource.addFilteredChip(eve);
+            }
+        });
+
+        assertSame(eve, mDataSource.getFilteredChipByTitle("Eve"));
+        assertTrue(mDataSource.existsInDataSource(eve));
+        assertFalse(mDataSource.getFilteredChips().contains(eve));
+    }
+
+    private Chip chip(String title) {
+        for (Chip chip : mDataSource.getOriginalChips()) {
+            if (chip.getTitle().equals(title)) {
+                return chip;
+            }
+        }
+        for (Chip chip : mDataSource.getSelectedChips()) {
+            if (chip.getTitle().equals(title)) {
+                return chip;
+            }
+        }
+        throw new AssertionError("No chip titled " + title);
+    }
+
+    private static void runInBackground(Runnable runnable) throws InterruptedException {
+        final Throwable[] error = new Throwable[1];
+        final Thread thread = new Thread(runnable);
+        thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                error[0] = e;
+            }
+        });
+        thread.start();
+        thread.join(5000);
+        if (error[0] != null) {
+            throw new AssertionError(error[0]);
+        }
+    }
+
+
+    /**
+     * {@link ListChipDataSource} that can make a writer wait while appending
+     * chips, holding the lock of the data source managing it.
+     */
+    private static final class BlockingChipDataSource extends ListChipDataSource {
+        private volatile CountDownLatch mBlocked;
+        private volatile CountDownLatch mUnblocked;
+
+        void block() {
+            mBlocked = new CountDownLatch(1);
+            mUnblocked = new CountDownLatch(1);
+        }
+
+        boolean awaitBlocked() throws InterruptedException {
+            return mBlocked.await(5, TimeUnit.SECONDS);
+        }
+
+        void unblock() {
+            mUnblocked.countDown();
+        }
+
+        @Override
+        public void appendFilterableChips(Collection<? extends Chip> chips) {
+            if (mBlocked != null) {
+                mBlocked.countDown();
+                try {
+                    mUnblocked.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            super.appendFilterableChips(chips);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.tylersuehr.chips;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+/**
+ * Robolectric tests of {@link FtsChipDataSource}, running its queries against SQLite.
+ *
+ * The chips are counted and loaded directly, like {@link PagedChipDataSource} does on
+ * its background thread, so the tests don't depend on when pages get loaded.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27, manifest = Config.NONE)
+public class FtsChipDataSourceTest {
+    private static final List<Chip> NONE = Collections.emptyList();
+
+    private FtsChipDataSource mDataSource;
+
+
+    @Before
+    public void setUp() throws Exception {
+        // An in-memory database, so every test starts empty; it's never
+        // closed, since a refresh may still be running in the background
+        mDataSource = new FtsChipDataSource(RuntimeEnvironment.application, null, 3, 3);
+        mDataSource.setFilterableChips(Arrays.<Chip>asList(
+                new TestChip("1", "John Smith", "john.smith@example.com"),
+                new TestChip("2", "Joe Brown", "joe@example.com"),
+                new TestChip("3", "Alice Johnson", "alice@example.com"),
+                new TestChip("4", "Émile Zola", "emile@example.fr"),
+                new TestChip("5", "Bob Jones", null),
+                new TestChip("6", "Carol Smithers", "carol@example.com"),
+                new TestChip("7", "Dave Or", "dave@example.com")));
+    }
+
+    @Test
+    public void countChips_emptyPattern_countsEveryChip() throws Exception {
+        assertEquals(7, mDataSource.countChips("", NONE));
+    }
+
+    @Test
+    public void countChips_matchesPrefixOfWords() throws Exception {
+        // "jo" starts John, Joe, Johnson and Jones, in titles or subtitles
+        assertEquals(4, mDataSource.countChips("jo", NONE));
+        assertEquals(titles("Carol Smithers", "John Smith"), titlesOf(load("smith")));
+        assertEquals(titles("Alice Johnson", "John Smith"), titlesOf(load("john")));
+    }
+
+    @Test
+    public void countChips_matchesEveryWord() throws Exception {
+        assertEquals(titles("John Smith"), titlesOf(load("jo sm")));
+        assertEquals(titles("John Smith"), titlesOf(load("smith john")));
+        assertEquals(0, mDataSource.countChips("jo zola", NONE));
+    }
+
+    @Test
+    public void countChips_matchesSubtitles() throws Exception {
+        assertEquals(titles("Émile Zola"), titlesOf(load("example fr")));
+    }
+
+    @Test
+    public void countChips_matchesNonAsciiLetters() throws Exception {
+        assertEquals(titles("Émile Zola"), titlesOf(load("émi")));
+    }
+
+    @Test
+    public void countChips_operatorsMatchedAsWords() throws Exception {
+        assertEquals(titles("Dave Or"), titlesOf(load("or")));
+        assertEquals(0, mDataSource.countChips("not", NONE));
+        assertEquals(titles("Dave Or"), titlesOf(load("-dave")));
+    }
+
+    @Test
+    public void countChips_patternWithoutWords_matchesNothing() throws Exception {
+        assertEquals(0, mDataSource.countChips("@.-", NONE));
+        assertTrue(mDataSource.loadChips("@.-", NONE, 0, 10).isEmpty());
+    }
+
+    @Test
+    public void countChips_leavesOutExcludedChips() throws Exception {
+        final List<Chip> excluded = new ArrayList<>();
+        for (Chip chip : mDataSource.loadChips("jo", NONE, 0, 10)) {
+            if (chip.getTitle().startsWith("Jo")) {
+                excluded.add(chip);
+            }
+        }
+        assertEquals(2, excluded.size());
+
+        assertEquals(2, mDataSource.countChips("jo", excluded));
+        assertEquals(5, mDataSource.countChips("", excluded));
+        assertEquals(titles("Alice Johnson", "Bob Jones"),
+                titlesOf(mDataSource.loadChips("jo", excluded, 0, 10)));
+    }
+
+    @Test
+    public void countChips_excludedByIdOnly() throws Exception {
+        // Selected chips don't have to be the loaded copies, like restored
+        // drafts; quotes in their IDs are escaped
+        final List<Chip> excluded = Arrays.<Chip>asList(
+                new TestChip("3", "Someone Else", null),
+                new TestChip("it's", "Not Stored", null));
+
+        assertEquals(6, mDataSource.countChips("", excluded));
+        assertEquals(0, mDataSource.countChips("alice", excluded));
+    }
+
+    @Test
+    public void loadChips_pagesSortedByTitle() throws Exception {
+        final List<Chip> all = new ArrayList<>();
+        for (int start = 0; start < 7; start += 3) {
+            final List<Chip> page = mDataSource.loadChips("", NONE, start, Math.min(3, 7 - start));
+            assertEquals(Math.min(3, 7 - start), page.size());
+            all.addAll(page);
+        }
+
+        final List<Chip> sorted = new ArrayList<>(all);
+        Collections.sort(sorted, Chip.getComparator());
+        assertEquals(titlesOf(sorted), titlesOf(all));
+        assertEquals("Alice Johnson", all.get(0).getTitle());
+        assertEquals("Émile Zola", all.get(4).getTitle());
+    }
+
+    @Test
+    public void loadChips_pagesWithExcludedChips_dontSkipOrRepeat() throws Exception {
+        final List<Chip> excluded = Collections.singletonList(
+                mDataSource.loadChips("bob", NONE, 0, 1).get(0));
+
+        final List<Chip> first = mDataSource.loadChips("", excluded, 0, 3);
+        final List<Chip> second = mDataSource.loadChips("", excluded, 3, 3);
+
+        assertEquals(titles("Alice Johnson", "Carol Smithers", "Dave Or"), titlesOf(first));
+        assertEquals(titles("Émile Zola", "Joe Brown", "John Smith"), titlesOf(second));
+    }
+
+    @Test
+    public void loadChips_keepStoredFields() throws Exception {
+        final Chip chip = mDataSource.loadChips("bob", NONE, 0, 1).get(0);
+
+        assertEquals("5", chip.getId());
+        assertEquals("Bob Jones", chip.getTitle());
+        assertNull(chip.getSubtitle());
+        assertNull(chip.getAvatarUri());
+    }
+
+    @Test
+    public void appendFilterableChips_searchableRightAway() throws Exception {
+        mDataSource.appendFilterableChips(Arrays.<Chip>asList(
+                new TestChip("8", "Johanna Smith", null)));
+
+        assertEquals(8, mDataSource.countChips("", NONE));
+        assertEquals(titles("Johanna Smith", "John Smith"), titlesOf(load("jo smith")));
+    }
+
+    @Test
+    public void appendFilterableChips_storedIds_skipped() throws Exception {
+        mDataSource.appendFilterableChips(Arrays.<Chip>asList(
+                new TestChip("1", "John Smith", "john.smith@example.com"),
+                new TestChip("8", "Johanna Smith", null),
+                new TestChip("8", "Johanna Smith", null)));
+
+        assertEquals(8, mDataSource.countChips("", NONE));
+        assertEquals(titles("Johanna Smith", "John Smith"), titlesOf(load("jo smith")));
+    }
+
+    @Test
+    public void loadChips_keepTypesOfIds() throws Exception {
+        mDataSource.setFilterableChips(Arrays.<Chip>asList(
+                new TestChip(1, "Integer", null),
+                new TestChip(1L << 40, "Long", null),
+                new TestChip("1", "String", null)));
+
+        assertEquals(1, load("integer").get(0).getId());
+        assertEquals(1L << 40, load("long").get(0).getId());
+        assertEquals("1", load("string").get(0).getId());
+        assertEquals(titles("Long", "String"), titlesOf(mDataSource.loadChips("",
+                Collections.<Chip>singletonList(new TestChip(1, "Integer", null)), 0, 3)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setFilterableChips_unsupportedId_throws() throws Exception {
+        mDataSource.setFilterableChips(Collections.<Chip>singletonList(
+                new TestChip(1.5, "Double", null)));
+    }
+
+    @Test
+    public void countChips_defaultLocaleChanged_sortedForNewLocale() throws Exception {
+        final Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.ENGLISH);
+            mDataSource.setFilterableChips(Arrays.<Chip>asList(
+                    new TestChip("1", "Åsa Berg", null),
+                    new TestChip("2", "Bo Ek", null)));
+            assertEquals(titles("Åsa Berg", "Bo Ek"), titlesOf(load("")));
+
+            // Swedish sorts Å after Z
+            Locale.setDefault(new Locale("sv", "SE"));
+            assertEquals(titles("Bo Ek", "Åsa Berg"), titlesOf(load("")));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void clearFilteredChips_deletesEveryChip() throws Exception {
+        mDataSource.clearFilteredChips();
+
+        assertEquals(0, mDataSource.countChips("", NONE));
+        assertEquals(0, mDataSource.countChips("jo", NONE));
+    }
+
+    private List<Chip> load(String pattern) {
+        return mDataSource.loadChips(pattern, NONE, 0, mDataSource.countChips(pattern, NONE));
+    }
+
+    private static List<String> titles(String... titles) {
+        return Arrays.asList(titles);
+    }
+
+    private static List<String> titlesOf(List<Chip> chips) {
+        final List<String> titles = new ArrayList<>(chips.size());
+        for (Chip chip : chips) {
+            titles.add(chip.getTitle());
+        }
+        return titles;
+    }
+}
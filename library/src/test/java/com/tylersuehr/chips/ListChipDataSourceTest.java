@@ -0,0 +1,349 @@
+package com.tylersuehr.chips;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests of {@link ListChipDataSource}, checking that the events it notifies
+ * observers with, applied to copies of its lists of chips, give the lists it has now.
+ */
+public class ListChipDataSourceTest {
+    private ListChipDataSource mDataSource;
+    private ChipEventRecorder mRecorder;
+    private List<Chip> mChips;
+
+
+    @Before
+    public void setUp() throws Exception {
+        mDataSource = new ListChipDataSource();
+        mRecorder = new ChipEventRecorder(mDataSource);
+
+        // Set out of order, so they get sorted
+        mChips = new ArrayList<>();
+        for (String title : new String[] {
+                "Hank", "Alice", "Eve", "Bob", "Grace", "Carol", "Dave", "Frank" }) {
+            mChips.add(new TestChip(title));
+        }
+        mDataSource.setFilterableChips(mChips);
+        mRecorder.assertListsMatch();
+        mRecorder.clear();
+    }
+
+    @Test
+    public void setFilterableChips_sortsChips() throws Exception {
+        assertEquals(titles("Alice", "Bob", "Carol", "Dave", "Eve", "Frank", "Grace", "Hank"),
+                titlesOf(mDataSource.getOriginalChips()));
+        assertEquals(mDataSource.getOriginalChips(), mDataSource.getFilteredChips());
+    }
+
+    @Test
+    public void addFilteredChip_insertedSorted() throws Exception {
+        mDataSource.addFilteredChip(new TestChip("Bill"));
+
+        assertEquals(1, mRecorder.events.size());
+        mRecorder.assertListsMatch();
+        assertEquals("Bill", mDataSource.getOriginalChips().get(1).getTitle());
+    }
+
+    @Test
+    public void takeChip_movesChipToSelected() throws Exception {
+        final Chip eve = chip("Eve");
+        mDataSource.takeChip(eve);
+        mDataSource.takeChip(0);
+
+        assertEquals(2, mRecorder.events.size());
+        mRecorder.assertListsMatch();
+        assertEquals(Arrays.asList(eve, chip("Alice")), mDataSource.getSelectedChips());
+        assertFalse(mDataSource.existsInFiltered(eve));
+        assertTrue(mDataSource.existsInSelected(eve));
+        assertEquals(Arrays.asList(eve, chip("Alice")), mRecorder.selected);
+    }
+
+    @Test
+    public void replaceChip_movesChipBackSorted() throws Exception {
+        final Chip bob = chip("Bob");
+        mDataSource.takeChip(bob);
+        mDataSource.takeChip(chip("Frank"));
+        mDataSource.replaceChip(bob);
+        mDataSource.replaceChip(0);
+
+        mRecorder.assertListsMatch();
+        assertTrue(mDataSource.getSelectedChips().isEmpty());
+        assertEquals(mChips.size(), mDataSource.getOriginalChips().size());
+        assertEquals(Arrays.asList(bob, chip("Frank")), mRecorder.unselected);
+    }
+
+    @Test
+    public void appendFilterableChips_notFiltered_mergedIntoFilteredChipsToo() throws Exception {
+        final Chip abe = new TestChip(1, "Abe", null);
+        final Chip ivy = new TestChip(2, "Ivy", null);
+        mDataSource.appendFilterableChips(Arrays.asList(ivy, abe));
+
+        assertEquals(1, mRecorder.events.size());
+        mRecorder.assertListsMatch();
+        assertEquals(mDataSource.getOriginalChips(), mDataSource.getFilteredChips());
+        assertSame(abe, mDataSource.getFilteredChipById(1));
+
+        mDataSource.takeChip(ivy);
+        assertEquals(Arrays.asList(ivy), mDataSource.getSelectedChips());
+    }
+
+    @Test
+    public void appendFilterableChips_whileFiltered_mergedIntoOriginalChipsOnly() throws Exception {
+        final List<Chip> filtered = Arrays.asList(chip("Alice"), chip("Dave"));
+        mDataSource.setFilteredChips(filtered);
+        mRecorder.syncFiltered();
+
+        final Chip abe = new TestChip("Abe");
+        final Chip ivy = new TestChip("Ivy");
+        final Chip cody = new TestChip("Cody");
+        mDataSource.appendFilterableChips(Arrays.asList(ivy, abe, chip("Bob"), cody, abe));
+
+        assertEquals(1, mRecorder.events.size());
+        assertFalse(mRecorder.events.get(0).hasChanges(ChipChangeEvent.FILTERED));
+        mRecorder.assertListsMatch();
+        assertEquals(titles("Abe", "Alice", "Bob", "Carol", "Cody", "Dave", "Eve", "Frank",
+                "Grace", "Hank", "Ivy"), titlesOf(mDataSource.getOriginalChips()));
+        assertEquals(filtered, mDataSource.getFilteredChips());
+        assertSame(cody, mDataSource.getOriginalChips().get(4));
+        assertNull(mDataSource.getFilteredChipByTitle("Cody"));
+    }
+
+    @Test
+    public void addSelectedChips_takesChipsOutsideFilteredResults() throws Exception {
+        // The last filter pattern only matched some of the chips
+        mDataSource.setFilteredChips(Arrays.asList(chip("Bob"), chip("Dave")));
+        mRecorder.syncFiltered();
+
+        final Chip custom = new TestChip("Zed");
+        mDataSource.addSelectedChips(
+                Arrays.asList(chip("Eve"), chip("Bob"), custom, chip("Eve")));
+
+        assertEquals(1, mRecorder.events.size());
+        assertEquals(1, mRecorder.batches);
+        mRecorder.assertListsMatch();
+        assertEquals(Arrays.asList(chip("Eve"), chip("Bob"), custom),
+                mDataSource.getSelectedChips());
+        assertEquals(Arrays.asList(chip("Dave")), mDataSource.getFilteredChips());
+        assertFalse(mDataSource.getOriginalChips().contains(chip("Eve")));
+        assertFalse(mDataSource.getOriginalChips().contains(chip("Bob")));
+
+        // Filtering again can't show the selected chips, and they're indexed once
+        mDataSource.replaceChip(chip("Eve"));
+        assertNull(mDataSource.getSelectedChipByTitle("Eve"));
+        assertSame(chip("Eve"), mDataSource.getFilteredChipByTitle("Eve"));
+        mRecorder.assertListsMatch();
+    }
+
+    @Test
+    public void takeChips_removedInOnePass() throws Exception {
+        final List<Chip> taken = Arrays.asList(
+                chip("Hank"), chip("Bob"), chip("Carol"), chip("Frank"));
+        mDataSource.takeChips(taken);
+
+        assertEquals(1, mRecorder.events.size());
+        mRecorder.assertListsMatch();
+        assertEquals(taken, mDataSource.getSelectedChips());
+        assertEquals(titles("Alice", "Dave", "Eve", "Grace"),
+                titlesOf(mDataSource.getFilteredChips()));
+        assertEquals(taken, mRecorder.selected);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void takeChips_chipNotFiltered_throws() throws Exception {
+        mDataSource.takeChip(chip("Bob"));
+        mDataSource.takeChips(Arrays.asList(chip("Alice"), chip("Bob")));
+    }
+
+    @Test
+    public void replaceChips_mergedBackSorted() throws Exception {
+        mDataSource.takeChips(
+                Arrays.asList(chip("Hank"), chip("Alice"), chip("Dave"), chip("Eve")));
+        mRecorder.clear();
+
+        mDataSource.replaceChips(Arrays.asList(chip("Eve"), chip("Alice"), chip("Hank")));
+
+        assertEquals(1, mRecorder.events.size());
+        mRecorder.assertListsMatch();
+        assertEquals(Arrays.asList(chip("Dave")), mDataSource.getSelectedChips());
+        assertEquals(titles("Alice", "Bob", "Carol", "Eve", "Frank", "Grace", "Hank"),
+                titlesOf(mDataSource.getOriginalChips()));
+    }
+
+    @Test
+    public void clearChips_removesEveryChip() throws Exception {
+        mDataSource.takeChips(Arrays.asList(chip("Bob"), chip("Eve")));
+        mDataSource.clearFilteredChips();
+        mDataSource.clearSelectedChips();
+
+        mRecorder.assertListsMatch();
+        assertTrue(mDataSource.getOriginalChips().isEmpty());
+        assertTrue(mDataSource.getSelectedChips().isEmpty());
+        assertNull(mDataSource.getSelectedChipByTitle("Bob"));
+        assertNull(mDataSource.getFilteredChipByTitle("Alice"));
+    }
+
+    @Test
+    public void batch_notifiesObserversOnceWhenCommitted() throws Exception {
+        mDataSource.beginBatch();
+        mDataSource.takeChip(chip("Carol"));
+        mDataSource.addSelectedChip(new TestChip("Custom"));
+        mDataSource.beginBatch();
+        mDataSource.takeChip(chip("Alice"));
+        mDataSource.commit();
+        assertTrue(mRecorder.events.isEmpty());
+        assertTrue(mRecorder.selected.isEmpty());
+        mDataSource.commit();
+
+        assertEquals(1, mRecorder.events.size());
+        assertEquals(1, mRecorder.batches);
+        assertEquals(3, mRecorder.selected.size());
+        mRecorder.assertListsMatch();
+    }
+
+    @Test
+    public void batch_selectedAndUnselected_cancelOut() throws Exception {
+        mDataSource.beginBatch();
+        mDataSource.takeChip(chip("Grace"));
+        mDataSource.replaceChip(chip("Grace"));
+        mDataSource.commit();
+
+        assertTrue(mRecorder.selected.isEmpty());
+        assertTrue(mRecorder.unselected.isEmpty());
+        mRecorder.assertListsMatch();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void commit_withoutBatch_throws() throws Exception {
+        mDataSource.commit();
+    }
+
+    @Test
+    public void snapshot_sharesUnchangedLists() throws Exception {
+        final ChipSnapshot before = mDataSource.getSnapshot();
+        assertSame(before, mDataSource.getSnapshot());
+
+        mDataSource.addSelectedChip(new TestChip("Custom"));
+        final ChipSnapshot after = mDataSource.getSnapshot();
+
+        assertNotSame(before, after);
+        assertTrue(after.getVersion() > before.getVersion());
+        assertSame(before.getOriginalChips(), after.getOriginalChips());
+        assertNotSame(before.getSelectedChips(), after.getSelectedChips());
+    }
+
+    @Test
+    public void randomChanges_eventsMatchLists() throws Exception {
+        final Random random = new Random(11);
+        final List<Chip> pool = new ArrayList<>(mChips);
+        for (int i = 0; i < 40; i++) {
+            pool.add(new TestChip("Chip " + i));
+        }
+
+        for (int step = 0; step < 2000; step++) {
+            final List<Chip> filtered = mDataSource.getFilteredChips();
+            final List<Chip> selected = mDataSource.getSelectedChips();
+            switch (random.nextInt(8)) {
+                case 0:
+                    if (!filtered.isEmpty()) {
+                        mDataSource.takeChip(random.nextInt(filtered.size()));
+                    }
+                    break;
+                case 1:
+                    if (!selected.isEmpty()) {
+                        mDataSource.replaceChip(random.nextInt(selected.size()));
+                    }
+                    break;
+                case 2:
+                    mDataSource.takeChips(sample(random, filtered));
+                    break;
+                case 3:
+                    mDataSource.replaceChips(sample(random, selected));
+                    break;
+                case 4:
+                    mDataSource.addSelectedChips(sample(random, pool));
+                    break;
+                case 5:
+                    mDataSource.appendFilterableChips(sample(random, pool));
+                    break;
+                case 6:
+                    // Filter the original chips, like the chip filter does
+                    final List<Chip> matches = new ArrayList<>();
+                    final String pattern = String.valueOf((char)('a' + random.nextInt(26)));
+                    for (Chip chip : mDataSource.getOriginalChips()) {
+                        if (chip.matchesFilter(pattern)) {
+                            matches.add(chip);
+                        }
+                    }
+                    mDataSource.setFilteredChips(Collections.unmodifiableList(matches));
+                    mRecorder.syncFiltered();
+                    break;
+                default:
+                    mDataSource.beginBatch();
+                    try {
+                        if (!filtered.isEmpty()) {
+                            mDataSource.takeChip(filtered.get(random.nextInt(filtered.size())));
+                        }
+                        mDataSource.replaceChips(sample(random, mDataSource.getSelectedChips()));
+                    } finally {
+                        mDataSource.commit();
+                    }
+                    break;
+            }
+            mRecorder.assertListsMatch();
+
+            // Every chip is in exactly one of the selected and original chips
+            for (Chip chip : mDataSource.getSelectedChips()) {
+                assertFalse(mDataSource.getOriginalChips().contains(chip));
+            }
+            assertEquals(new ArrayList<>(mDataSource.getOriginalChips()),
+                    sorted(mDataSource.getOriginalChips()));
+        }
+    }
+
+    private Chip chip(String title) {
+        for (Chip chip : mChips) {
+            if (chip.getTitle().equals(title)) {
+                return chip;
+            }
+        }
+        throw new IllegalArgumentException(title);
+    }
+
+    private static List<Chip> sample(Random random, List<Chip> chips) {
+        final List<Chip> sample = new ArrayList<>();
+        for (Chip chip : chips) {
+            if (random.nextInt(4) == 0) {
+                sample.add(chip);
+            }
+        }
+        Collections.shuffle(sample, random);
+        return sample;
+    }
+
+    private static List<Chip> sorted(List<Chip> chips) {
+        final List<Chip> sorted = new ArrayList<>(chips);
+        Collections.sort(sorted, Chip.getComparator());
+        return sorted;
+    }
+
+    private static List<String> titles(String... titles) {
+        return Arrays.asList(titles);
+    }
+
+    private static List<String> titlesOf(List<Chip> chips) {
+        final List<String> titles = new ArrayList<>(chips.size());
+        for (Chip chip : chips) {
+            titles.add(chip.getTitle());
+        }
+        return titles;
+    }
+}
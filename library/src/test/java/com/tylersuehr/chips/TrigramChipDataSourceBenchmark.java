@@ -0,0 +1,152 @@
+package com.tylersuehr.chips;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Benchmark of {@link TrigramChipDataSource}, filtering 100k chips like a large address book.
+ *
+ * Each keystroke is timed from the pattern to the list of matching chips, which is what the
+ * chip filter does on its background thread, and compared with scanning every chip. Timings
+ * are printed, since they depend on the machine; the results are always checked, and patterns
+ * matching only a few of the chips have to be found several times faster than by scanning.
+ */
+public class TrigramChipDataSourceBenchmark {
+    private static final int CHIPS = 100000;
+    private static final int RUNS = 50;
+    private static final int SCAN_RUNS = 5;
+    /* How much faster than a scan the index has to find few matching chips */
+    private static final int MIN_SPEEDUP = 4;
+    private static final String[] FIRST_NAMES = {
+            "James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael", "Linda",
+            "William", "Elizabeth", "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica",
+            "Thomas", "Sarah", "Charles", "Karen", "Christopher", "Nancy", "Daniel", "Lisa"
+    };
+    private static final String[] LAST_NAMES = {
+            "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis",
+            "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson",
+            "Thomas", "Taylor", "Moore", "Jackson", "Martin", "Lee", "Perez", "Thompson", "White"
+    };
+
+    private TrigramChipDataSource mDataSource;
+    private List<Chip> mChips;
+
+
+    @Before
+    public void setUp() throws Exception {
+        // Deterministic names and e-mail addresses, mostly unique
+        final Random random = new Random(42);
+        mChips = new ArrayList<>(CHIPS);
+        for (int i = 0; i < CHIPS; i++) {
+            final String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+            final String last = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            mChips.add(new TestChip(i, first + " " + last + " " + i,
+                    first.toLowerCase() + "." + last.toLowerCase() + i + "@example.com"));
+        }
+
+        final long start = System.nanoTime();
+        mDataSource = new TrigramChipDataSource();
+        mDataSource.setFilterableChips(mChips);
+        System.out.println("Indexed " + CHIPS + " chips in " + millis(System.nanoTime() - start));
+    }
+
+    @Test
+    public void findChips_typingAName_matchesLinearScan() throws Exception {
+        for (String pattern : Arrays.asList("jen", "jenn", "jennifer", "jennifer l",
+                "jennifer lee", "jennifer lee 4", "smith9", "@example", "zzz")) {
+            final List<Chip> found = mDataSource.findChips(pattern);
+            assertNotNull(found);
+            assertEquals(pattern, scan(pattern), found);
+
+            final long[] times = new long[RUNS];
+            for (int i = 0; i < RUNS; i++) {
+                final long start = System.nanoTime();
+                mDataSource.findChips(pattern);
+                times[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(times);
+
+            final long[] scans = new long[SCAN_RUNS];
+            for (int i = 0; i < SCAN_RUNS; i++) {
+                final long start = System.nanoTime();
+                scan(pattern);
+                scans[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(scans);
+
+            System.out.println("\"" + pattern + "\": " + found.size() + " matches, median "
+                    + millis(times[RUNS / 2]) + ", scan " + millis(scans[SCAN_RUNS / 2]));
+            if (found.size() < CHIPS / 10) {
+                assertTrue(pattern, times[RUNS / 2] * MIN_SPEEDUP < scans[SCAN_RUNS / 2]);
+            }
+        }
+    }
+
+    @Test
+    public void findChips_shortPattern_leftToTheFilter() throws Exception {
+        assertNull(mDataSource.findChips("je"));
+    }
+
+    @Test
+    public void takeChip_commonTrigrams_removedFromIndex() throws Exception {
+        // Every chip has the trigrams of "@example.com", so taking chips
+        // removes them from some very long lists of the index
+        final List<Chip> taken = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            taken.add(mDataSource.getFilteredChip(i * (CHIPS / 1000 - 1)));
+        }
+
+        final long start = System.nanoTime();
+        for (Chip chip : taken) {
+            mDataSource.takeChip(chip);
+        }
+        System.out.println("Took " + taken.size() + " chips in "
+                + millis(System.nanoTime() - start));
+
+        final List<Chip> found = mDataSource.findChips("example");
+        assertEquals(CHIPS - taken.size(), found.size());
+        for (Chip chip : taken) {
+            assertFalse(found.contains(chip));
+        }
+    }
+
+    @Test
+    public void appendFilterableChips_inBatches_indexMatchesScan() throws Exception {
+        // Batches arrive in no particular order, like pages from several sources
+        final TrigramChipDataSource dataSource = new TrigramChipDataSource();
+        final long start = System.nanoTime();
+        for (int i = 0; i < CHIPS; i += 1000) {
+            dataSource.appendFilterableChips(mChips.subList(i, i + 1000));
+        }
+        System.out.println("Appended " + CHIPS + " chips in batches of 1000 in "
+                + millis(System.nanoTime() - start));
+
+        mDataSource = dataSource;
+        assertEquals(CHIPS, dataSource.getFilteredChips().size());
+        for (String pattern : Arrays.asList("example", "jennifer lee", "smith9")) {
+            assertEquals(pattern, scan(pattern), dataSource.findChips(pattern));
+        }
+    }
+
+    /* Finds the matching chips by scanning all of them, like the chip filter */
+    private List<Chip> scan(String pattern) {
+        final List<Chip> matches = new ArrayList<>();
+        for (Chip chip : mDataSource.getOriginalChips()) {
+            if (chip.matchesFilter(pattern)) {
+                matches.add(chip);
+            }
+        }
+        return matches;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3f ms", nanos / 1e6);
+    }
+}